@@ -0,0 +1,65 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test of the bind path of {@link Utils#loadBitmap}: a cell bound to
+ * a thumbnail that is in the memory cache must not allocate.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BindAllocationTest {
+
+    private static final int BINDS = 1000;
+    private static final int SIZE = 96;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void loadBitmap_memoryCacheHits_allocateNothing() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        //  _IDs far above any real image, so the test never meets a real thumbnail
+        final ImageEntry first = new ImageEntry(Integer.MAX_VALUE - 1L, "/test/first.jpg", 0);
+        final ImageEntry second = new ImageEntry(Integer.MAX_VALUE - 2L, "/test/second.jpg", 0);
+        final int[] allocations = new int[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final BitmapPool pool = Utils.getBitmapPool(context);
+                for (ImageEntry image : new ImageEntry[] {first, second}) {
+                    Utils.addToCache(image.getCacheKey(SIZE, SIZE), new RecyclingBitmapDrawable(
+                            context.getResources(),
+                            Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888), pool));
+                }
+                final RecyclingImageView imageView = new RecyclingImageView(context);
+                //  Warm up the lazily created caches and metrics
+                Utils.loadBitmap(imageView, first, SIZE, SIZE, context);
+                Utils.loadBitmap(imageView, second, SIZE, SIZE, context);
+
+                //  Alternate images, so that every bind really swaps the drawable
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < BINDS; i++) {
+                    Utils.loadBitmap(imageView, (i & 1) == 0 ? first : second, SIZE, SIZE, context);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+
+                Utils.releaseView(imageView);
+                Utils.getMemoryCache(context).remove(first.getCacheKey(SIZE, SIZE));
+                Utils.getMemoryCache(context).remove(second.getCacheKey(SIZE, SIZE));
+            }
+        });
+
+        assertTrue("Allocated " + allocations[0] + " objects in " + BINDS + " binds",
+                allocations[0] < BINDS / 100);
+    }
+}
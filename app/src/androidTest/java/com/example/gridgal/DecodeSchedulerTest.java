@@ -0,0 +1,100 @@
+package com.example.gridgal;
+
+import android.os.AsyncTask;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test of how {@link DecodeScheduler} drops tasks from its full queue.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodeSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void fullQueue_dropsTheOldestTaskIntoOnCancelled() throws Exception {
+        final int poolSize = DecodeScheduler.getPoolSize();
+        final CountDownLatch started = new CountDownLatch(poolSize);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTask oldest = new RecordingTask(null, null);
+        try {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    //  Hold every decode thread, so the tasks after these stay queued
+                    for (int i = 0; i < poolSize; i++) {
+                        DecodeScheduler.execute(new RecordingTask(started, release));
+                    }
+                }
+            });
+            assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    DecodeScheduler.execute(oldest);
+                    for (int i = 0; i < DecodeScheduler.QUEUE_CAPACITY; i++) {
+                        DecodeScheduler.execute(new RecordingTask(null, null));
+                    }
+                }
+            });
+
+            assertTrue(oldest.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(oldest.isCancelled());
+            assertTrue(oldest.isCancelledCalled);
+            assertFalse(oldest.isPostExecuteCalled);
+            assertFalse(oldest.isRun);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static class RecordingTask extends AsyncTask<Void, Void, Void> {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean isRun;
+        volatile boolean isCancelledCalled;
+        volatile boolean isPostExecuteCalled;
+
+        RecordingTask(CountDownLatch started, CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            isRun = true;
+            if (started != null) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            isPostExecuteCalled = true;
+            finished.countDown();
+        }
+
+        @Override
+        protected void onCancelled(Void result) {
+            isCancelledCalled = true;
+            finished.countDown();
+        }
+    }
+}
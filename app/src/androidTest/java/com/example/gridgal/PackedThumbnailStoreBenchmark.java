@@ -0,0 +1,152 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation benchmark comparing disk hits of the JPEG {@link DiskThumbnailCache}
+ * with the raw-pixel {@link PackedThumbnailStore}. Results are written to logcat
+ * under the "ThumbnailStoreBench" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PackedThumbnailStoreBenchmark {
+
+    private static final String TAG = "ThumbnailStoreBench";
+    private static final int THUMBNAIL_COUNT = 300;
+    private static final int SIZE = 100;
+    private static final int ROUNDS = 3;
+
+    private File root;
+    private DiskThumbnailCache diskCache;
+    private PackedThumbnailStore packedStore;
+    private BitmapPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        root = new File(context.getCacheDir(), "store-benchmark");
+        deleteRecursively(root);
+        diskCache = DiskThumbnailCache.open(new File(root, "jpeg"), 64L * 1024 * 1024);
+        packedStore = PackedThumbnailStore.open(new File(root, "packed"),
+                SIZE * SIZE * 4, 64L * 1024 * 1024);
+        pool = BitmapPool.create(context);
+
+        Random random = new Random(42);
+        for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+            final Bitmap thumbnail = syntheticThumbnail(random);
+            diskCache.put(key(i), new DiskThumbnailCache.EntryWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    thumbnail.compress(Bitmap.CompressFormat.JPEG, 97, out);
+                }
+            });
+            Utils.writePackedThumbnail(packedStore, key(i), thumbnail);
+            thumbnail.recycle();
+        }
+        packedStore.flush();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        packedStore.close();
+        diskCache.close();
+        deleteRecursively(root);
+    }
+
+    @Test
+    public void compareDiskHitLatency() throws Exception {
+        long jpegNanos = Long.MAX_VALUE;
+        long packedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            jpegNanos = Math.min(jpegNanos, readAllJpeg());
+            packedNanos = Math.min(packedNanos, readAllPacked());
+        }
+
+        Log.i(TAG, "JPEG disk cache:   " + (jpegNanos / THUMBNAIL_COUNT / 1000) + " us per hit");
+        Log.i(TAG, "Packed raw store:  " + (packedNanos / THUMBNAIL_COUNT / 1000) + " us per hit");
+        Log.i(TAG, "Speed-up:          " + String.format("%.1fx", (double) jpegNanos / packedNanos));
+    }
+
+    @Test
+    public void packedRead_returnsPixelsAsWritten() throws Exception {
+        Bitmap original = syntheticThumbnail(new Random(7));
+        Utils.writePackedThumbnail(packedStore, "roundtrip", original);
+
+        Bitmap copy = Utils.readPackedThumbnail(packedStore, "roundtrip", SIZE, SIZE, pool);
+
+        assertNotNull(copy);
+        assertTrue(original.sameAs(copy));
+    }
+
+    private long readAllJpeg() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.outWidth = SIZE;
+            opts.outHeight = SIZE;
+            Bitmap bitmap = pool.decodeFile(diskCache.get(key(i)).getAbsolutePath(), opts);
+            assertNotNull(bitmap);
+            pool.put(bitmap);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private long readAllPacked() throws IOException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+            Bitmap bitmap = Utils.readPackedThumbnail(packedStore, key(i), SIZE, SIZE, pool);
+            assertNotNull(bitmap);
+            pool.put(bitmap);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    /** A photo-like thumbnail: a gradient with noise, so JPEG cannot compress it to nothing */
+    private static Bitmap syntheticThumbnail(Random random) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int y = 0; y < SIZE; y += 4) {
+            for (int x = 0; x < SIZE; x += 4) {
+                paint.setColor(Color.rgb((x * 2 + random.nextInt(40)) & 0xff,
+                        (y * 2 + random.nextInt(40)) & 0xff, random.nextInt(256)));
+                canvas.drawRect(x, y, x + 4, y + 4, paint);
+            }
+        }
+        return bitmap;
+    }
+
+    private static String key(int i) {
+        return DiskThumbnailCache.keyFor("/sdcard/DCIM/bench_" + i + ".jpg", 0L, 0L, SIZE, SIZE);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.gridgal;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ *  A pool of mutable Bitmaps that are no longer displayed or cached, kept so that
+ *  decodes can write into them through {@link BitmapFactory.Options#inBitmap}
+ *  instead of allocating (and later garbage collecting) new pixel buffers.
+ *
+ *  Bitmaps are grouped by width, height and {@link Bitmap.Config}. On KitKat and
+ *  above a larger Bitmap can also be reused for a smaller decode, so lookups fall
+ *  back to the first pooled Bitmap with a big enough allocation.
+ */
+public class BitmapPool implements ComponentCallbacks2 {
+
+    private static final String TAG = "BitmapPool";
+
+    //  Share of the app's memory class given to the pool (1/16 of the heap)
+    private static final int MEMORY_CLASS_DIVISOR = 16;
+
+    private final int maxBytes;
+    private int currentBytes;
+
+    private final HashMap<Long, ArrayDeque<Bitmap>> bitmapsBySize = new HashMap<>();
+    //  Every pooled Bitmap in the order it was added, used to evict the oldest first
+    private final ArrayDeque<Bitmap> evictionOrder = new ArrayDeque<>();
+
+    private int hits;
+    private int misses;
+
+    private BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     *  Creates a pool sized from the device's memory class and registers it for
+     *  trim-memory callbacks on the application context
+     *
+     *  @param context          any context, only its application context is retained
+     *  @return                 a new, empty pool
+     */
+    public static BitmapPool create(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        final int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+
+        BitmapPool pool = new BitmapPool(memoryClassBytes / MEMORY_CLASS_DIVISOR);
+        appContext.registerComponentCallbacks(pool);
+        return pool;
+    }
+
+    /**
+     *  Offers a Bitmap that nothing references any more back to the pool. Bitmaps
+     *  that cannot be decoded into are recycled instead.
+     *
+     *  @param bitmap           the Bitmap to reuse, may be null
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() == null
+                || ThumbnailMemoryCache.getBitmapBytes(bitmap) > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        final Long key = sizeKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = bitmapsBySize.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            bitmapsBySize.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        evictionOrder.addLast(bitmap);
+        currentBytes += ThumbnailMemoryCache.getBitmapBytes(bitmap);
+        trimToSize(maxBytes);
+    }
+
+    /**
+     *  Takes a pooled Bitmap of exactly the given size and config out of the pool
+     *
+     *  @return                 a mutable Bitmap with undefined contents, or null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final ArrayDeque<Bitmap> bitmaps = bitmapsBySize.get(sizeKey(width, height, config));
+        if (bitmaps != null && !bitmaps.isEmpty()) {
+            final Bitmap bitmap = bitmaps.removeLast();
+            evictionOrder.remove(bitmap);
+            currentBytes -= ThumbnailMemoryCache.getBitmapBytes(bitmap);
+            hits++;
+            return bitmap;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     *  Sets {@link BitmapFactory.Options#inBitmap} to a pooled Bitmap that the decode
+     *  described by the options can write into. The options must already hold the
+     *  bounds of the source (outWidth / outHeight) and the inSampleSize to use.
+     *
+     *  @param opts             decode options, modified in place
+     */
+    public void addInBitmapOptions(BitmapFactory.Options opts) {
+        opts.inMutable = true;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && opts.inSampleSize > 1) {
+            //  Before KitKat a sampled decode rejects any inBitmap, and the retry would
+            //  decode the file twice
+            opts.inBitmap = null;
+            return;
+        }
+
+        final Bitmap.Config config = opts.inPreferredConfig != null
+                ? opts.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final int sampleSize = Math.max(1, opts.inSampleSize);
+        final int width = (opts.outWidth + sampleSize - 1) / sampleSize;
+        final int height = (opts.outHeight + sampleSize - 1) / sampleSize;
+
+        Bitmap reusable = get(width, height, config);
+        if (reusable == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reusable = getLargeEnough(width * height * getBytesPerPixel(config));
+        }
+        opts.inBitmap = reusable;
+    }
+
+    /**
+     *  Decodes a file, reusing a pooled Bitmap when one fits. If the pooled Bitmap is
+     *  rejected by the decoder, the decode is retried into a fresh allocation, unless
+     *  it failed because it was cancelled through {@link BitmapFactory.Options#requestCancelDecode()}.
+     *
+     *  @param imagePath        the file to decode
+     *  @param opts             decode options holding the source bounds and inSampleSize
+     *  @return                 the decoded Bitmap, or null if the file could not be decoded
+     */
+    public Bitmap decodeFile(String imagePath, BitmapFactory.Options opts) {
+        addInBitmapOptions(opts);
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath, opts);
+        if (bitmap == null && opts.inBitmap != null && !opts.mCancel) {
+            //  BitmapFactory swallows the IllegalArgumentException of a mismatched inBitmap
+            final Bitmap rejected = opts.inBitmap;
+            opts.inBitmap = null;
+            put(rejected);
+            bitmap = BitmapFactory.decodeFile(imagePath, opts);
+        }
+        return bitmap;
+    }
+
+    /**
+     *  Decodes an area of an image, reusing a pooled Bitmap of exactly the decoded size.
+     *  BitmapRegionDecoder draws into {@link BitmapFactory.Options#inBitmap} without
+     *  resizing it, so a larger Bitmap can not be used; the area should be a whole
+     *  number of samples wide and high, so its decoded size is exact.
+     *
+     *  @param decoder          a region decoder of the image
+     *  @param region           the area to decode, in pixels of the full image
+     *  @param opts             decode options holding the inSampleSize and config
+     *  @return                 the decoded area, or null if it could not be decoded
+     */
+    public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region,
+                               BitmapFactory.Options opts) {
+        final Bitmap.Config config = opts.inPreferredConfig != null
+                ? opts.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final int sampleSize = Math.max(1, opts.inSampleSize);
+        opts.inMutable = true;
+        opts.inBitmap = get(region.width() / sampleSize, region.height() / sampleSize, config);
+        try {
+            return decoder.decodeRegion(region, opts);
+        } catch (IllegalArgumentException e) {
+            if (opts.inBitmap == null) {
+                throw e;
+            }
+            //  The decoder rejected the pooled Bitmap, decode into a fresh allocation
+            final Bitmap rejected = opts.inBitmap;
+            opts.inBitmap = null;
+            put(rejected);
+            return decoder.decodeRegion(region, opts);
+        }
+    }
+
+    private synchronized Bitmap getLargeEnough(int byteCount) {
+        final Iterator<Bitmap> iterator = evictionOrder.iterator();
+        while (iterator.hasNext()) {
+            final Bitmap candidate = iterator.next();
+            if (candidate.getAllocationByteCount() >= byteCount) {
+                iterator.remove();
+                bitmapsBySize.get(sizeKey(candidate.getWidth(), candidate.getHeight(),
+                        candidate.getConfig())).remove(candidate);
+                currentBytes -= candidate.getAllocationByteCount();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     *  Recycles the oldest pooled Bitmaps until the pool fits in the given size
+     */
+    public synchronized void trimToSize(int size) {
+        while (currentBytes > size && !evictionOrder.isEmpty()) {
+            final Bitmap oldest = evictionOrder.removeFirst();
+            bitmapsBySize.get(sizeKey(oldest.getWidth(), oldest.getHeight(),
+                    oldest.getConfig())).remove(oldest);
+            currentBytes -= ThumbnailMemoryCache.getBitmapBytes(oldest);
+            oldest.recycle();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(maxBytes / 2);
+        }
+        Log.i(TAG, "onTrimMemory(" + level + ") " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //  Pooled Bitmaps do not depend on the configuration
+    }
+
+    /**
+     *  @return                 a one-line summary of the pool's size and reuse counters
+     */
+    public synchronized String getStats() {
+        return "size=" + currentBytes + "/" + maxBytes + " bytes"
+                + ", bitmaps=" + evictionOrder.size()
+                + ", hits=" + hits
+                + ", misses=" + misses;
+    }
+
+    private static Long sizeKey(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.gridgal;
+
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ *  The bounded queue behind {@link DecodeScheduler}. It hands out the most recently
+ *  offered task first, and makes room for a new task by dropping an old one: the
+ *  oldest speculative task if there is one, such as a prefetch no cell is waiting
+ *  for, otherwise the oldest task of all.
+ *
+ *  A dropped task is told through {@link Entry#drop()}, so that it finishes as
+ *  cancelled and releases what it holds instead of never running. It has no Android
+ *  dependencies, so it can be unit tested.
+ */
+final class DecodeQueue extends LinkedBlockingDeque<Runnable> {
+
+    /**
+     *  A queued task that knows how to cancel itself
+     */
+    interface Entry extends Runnable {
+        /**
+         *  @return             true if no visible cell is waiting for the task, so it
+         *                      is dropped before any task that one is waiting for
+         */
+        boolean isSpeculative();
+
+        /**
+         *  Cancels the task, which has been taken out of the queue and never runs
+         */
+        void drop();
+
+        /**
+         *  @return             true if the task was cancelled while it was queued
+         */
+        boolean isCancelled();
+    }
+
+    private int dropCount;
+
+    DecodeQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public synchronized boolean offer(Runnable runnable) {
+        while (!offerFirst(runnable)) {
+            final Runnable dropped = removeOldest();
+            if (dropped instanceof Entry) {
+                ((Entry) dropped).drop();
+            }
+            if (dropped != null) {
+                dropCount++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Removes the tasks that were cancelled while queued, so they stop taking up room
+     */
+    void removeCancelled() {
+        final Iterator<Runnable> iterator = iterator();
+        while (iterator.hasNext()) {
+            final Runnable runnable = iterator.next();
+            if (runnable instanceof Entry && ((Entry) runnable).isCancelled()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     *  @return                 the number of tasks dropped to make room for newer ones
+     */
+    synchronized int getDropCount() {
+        return dropCount;
+    }
+
+    /**
+     *  @return                 the oldest speculative task, or else the oldest task,
+     *                          or null if the queue was emptied meanwhile
+     */
+    private Runnable removeOldest() {
+        final Iterator<Runnable> oldestFirst = descendingIterator();
+        while (oldestFirst.hasNext()) {
+            final Runnable runnable = oldestFirst.next();
+            if (runnable instanceof Entry && ((Entry) runnable).isSpeculative()) {
+                oldestFirst.remove();
+                return runnable;
+            }
+        }
+        return pollLast();
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.gridgal;
+
+import android.os.AsyncTask;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Executor for thumbnail decodes, used instead of {@link android.os.AsyncTask}'s
+ *  serial executor so that decodes run in parallel on every core.
+ *
+ *  The queue is last-in first-out: the cell bound most recently is the one the user
+ *  is looking at, so it is decoded first. The queue is also bounded; when it is full
+ *  the oldest pending prefetch, or else the oldest pending decode, which belongs to a
+ *  cell that has most likely scrolled off screen, is dropped and cancelled, see
+ *  {@link DecodeQueue}. Tasks go through {@link #execute(AsyncTask, Object[])} so that
+ *  a dropped one finishes in onCancelled.
+ *
+ *  Full decodes of original images can be paused while the grid is flinging, see
+ *  {@link #setFullDecodesPaused(boolean)}. A task that would decode an original while
+ *  paused finishes early instead of waiting, so the threads keep loading thumbnails
+ *  found on disk throughout the fling.
+ */
+public final class DecodeScheduler {
+
+    private static final String TAG = "DecodeScheduler";
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    //  Leave a core for the UI thread, but always decode at least two images at a time
+    private static final int DEFAULT_POOL_SIZE = Math.max(2, CPU_COUNT - 1);
+    static final int QUEUE_CAPACITY = 48;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    //  Threads of the full-screen viewer, which decodes a handful of tiles at a time
+    private static final int VIEWER_POOL_SIZE = 2;
+
+    private static int poolSize = DEFAULT_POOL_SIZE;
+    private static ThreadPoolExecutor executor;
+    private static ThreadPoolExecutor viewerExecutor;
+
+    private static volatile boolean isFullDecodePaused;
+
+    /**
+     *  A private constructor is created so no one should ever create a
+     *  {@link DecodeScheduler} object, it only holds the shared executor.
+     */
+    private DecodeScheduler() {
+    }
+
+    /**
+     *  Returns the shared decode executor, creating it on first use
+     *
+     *  @return                 the executor that thumbnail tasks should run on
+     */
+    public static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(poolSize, poolSize,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new DecodeQueue(QUEUE_CAPACITY), new DecodeThreadFactory("ThumbnailDecode"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     *  Returns the executor of the full-screen viewer, creating it on first use. It is
+     *  kept apart from the grid's, so that tiles never take or lose a place in the
+     *  grid's bounded queue. Its queue is unbounded and first-in first-out; the viewer
+     *  cancels the tiles that leave the screen itself.
+     *
+     *  @return                 the executor that viewer decodes should run on
+     */
+    public static synchronized ThreadPoolExecutor getViewerExecutor() {
+        if (viewerExecutor == null) {
+            viewerExecutor = new ThreadPoolExecutor(VIEWER_POOL_SIZE, VIEWER_POOL_SIZE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DecodeThreadFactory("ViewerDecode"));
+            viewerExecutor.allowCoreThreadTimeOut(true);
+        }
+        return viewerExecutor;
+    }
+
+    /**
+     *  Changes the number of decode threads. Takes effect immediately if the executor
+     *  has already been created.
+     *
+     *  @param size             number of threads decoding in parallel, at least 1
+     */
+    public static synchronized void setPoolSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, was " + size);
+        }
+        poolSize = size;
+        if (executor != null) {
+            //  Order matters: the maximum may never drop below the core size
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     *  @return                 the number of threads decoding in parallel
+     */
+    public static synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     *  Pauses or resumes full decodes. While paused, a task that misses the disk cache
+     *  gives up its thread instead of decoding an image for a cell that is about to fly
+     *  off screen; its owner issues the load again once decodes resume.
+     *
+     *  @param paused           true to hold back full decodes, false to let them run
+     */
+    public static void setFullDecodesPaused(boolean paused) {
+        isFullDecodePaused = paused;
+    }
+
+    /**
+     *  @return                 true while full decodes are paused. Safe to call from
+     *                          any thread.
+     */
+    public static boolean isFullDecodePaused() {
+        return isFullDecodePaused;
+    }
+
+    /**
+     *  Implemented by tasks that may be speculative, which a full queue drops before any
+     *  task a visible cell is waiting for
+     */
+    public interface Speculative {
+        /**
+         *  Called on the UI thread, when the queue is full
+         *
+         *  @return             true if no visible cell is waiting for the task
+         */
+        boolean isSpeculative();
+    }
+
+    /**
+     *  Runs a task on the decode executor. Unlike passing {@link #getExecutor()} to
+     *  {@link AsyncTask#executeOnExecutor(Executor, Object[])}, the queue keeps hold of
+     *  the task, so a task dropped from the full queue is cancelled and finishes in
+     *  onCancelled instead of onPostExecute. Must be called on the UI thread.
+     *
+     *  @param task             the task to run, which may implement {@link Speculative}
+     *  @param params           the parameters of the task
+     */
+    @SafeVarargs
+    public static <Params> void execute(final AsyncTask<Params, ?, ?> task, Params... params) {
+        task.executeOnExecutor(new Executor() {
+            @Override
+            public void execute(Runnable future) {
+                getExecutor().execute(new QueuedTask(task, future));
+            }
+        }, params);
+    }
+
+    /**
+     *  Frees the queue slots of tasks cancelled before they started
+     */
+    public static void purge() {
+        ((DecodeQueue) getExecutor().getQueue()).removeCancelled();
+    }
+
+    /**
+     *  @return                 the number of tasks dropped from the full queue so far
+     */
+    public static int getDropCount() {
+        return ((DecodeQueue) getExecutor().getQueue()).getDropCount();
+    }
+
+    /**
+     *  The queue entry of an {@link AsyncTask}, which runs the task's FutureTask and
+     *  cancels the task itself when dropped
+     */
+    private static class QueuedTask implements DecodeQueue.Entry {
+        private final AsyncTask<?, ?, ?> task;
+        private final Runnable future;
+
+        QueuedTask(AsyncTask<?, ?, ?> task, Runnable future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            future.run();
+        }
+
+        @Override
+        public boolean isSpeculative() {
+            return task instanceof Speculative && ((Speculative) task).isSpeculative();
+        }
+
+        @Override
+        public void drop() {
+            //  Cancelling the task, not only its FutureTask, sets isCancelled() so the
+            //  task finishes in onCancelled without running doInBackground
+            task.cancel(false);
+            Log.v(TAG, "Decode queue full, dropped a pending decode");
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+    }
+
+    /**
+     *  Creates named decode threads that run just below the default priority, so that
+     *  they never compete with the UI thread
+     */
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        DecodeThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND
+                            + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+                    runnable.run();
+                }
+            }, name + " #" + count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.example.gridgal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A bounded, journaled cache of thumbnail files on disk.
+ *
+ *  Entries are stored as flat files named after a hash of their key, so that image
+ *  paths never turn into nested directories. Every entry is first written to a
+ *  temporary file and only renamed into place once it is complete, so a crash can
+ *  never leave a truncated thumbnail that looks like a hit.
+ *
+ *  The index lives in memory as an access-ordered {@link LinkedHashMap}, which makes
+ *  lookups O(1) and gives least-recently-used eviction once the cache is over its
+ *  byte budget. An append-only journal records every change so that the index (and
+ *  its LRU order) survives restarts, and it is compacted when it grows too long.
+ *
+ *  Journal format, one operation per line after a two line header:
+ *      CLEAN key length        an entry was committed
+ *      READ key                an entry was used
+ *      REMOVE key              an entry was evicted or invalidated
+ */
+public class DiskThumbnailCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String MAGIC = "gridgal.DiskThumbnailCache";
+    private static final String VERSION = "1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    //  Compact the journal once it holds this many lines that no longer matter
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final File journalFile;
+    private final File journalFileTemp;
+    private long maxBytes;
+
+    //  Entry lengths by key, in access order (least recently used first)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long size;
+    private Writer journalWriter;
+    private int redundantOpCount;
+
+    //  Makes temporary file names unique when two threads write the same key
+    private final AtomicInteger tempFileCounter = new AtomicInteger();
+
+    /**
+     *  Receives the stream that a new entry is written to
+     */
+    public interface EntryWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private DiskThumbnailCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTemp = new File(directory, JOURNAL_FILE_TEMP);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     *  Opens the cache in the given directory, replaying its journal if there is one.
+     *  Does disk I/O, so must not be called on the UI thread.
+     *
+     *  @param directory        a directory owned exclusively by this cache
+     *  @param maxBytes         the byte budget of the cache
+     *  @return                 the opened cache
+     */
+    public static DiskThumbnailCache open(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        DiskThumbnailCache cache = new DiskThumbnailCache(directory, maxBytes);
+        if (cache.journalFile.exists()) {
+            try {
+                cache.readJournal();
+            } catch (IOException e) {
+                //  A damaged journal means the index cannot be trusted, start over
+                cache.entries.clear();
+                cache.size = 0;
+            }
+        }
+        cache.deleteUntrackedFiles();
+        cache.rebuildJournal();
+        cache.trimToSize();
+        return cache;
+    }
+
+    /**
+     *  Builds the cache key of a thumbnail. The source file's modification time and size
+     *  are part of the key, so an edited or replaced image no longer matches its old
+     *  thumbnail, which is then left for LRU eviction.
+     *
+     *  @param imagePath        path of the full-size source image
+     *  @param lastModified     modification time of the source image
+     *  @param length           size of the source image in bytes
+     *  @param width            width of the thumbnail
+     *  @param height           height of the thumbnail
+     *  @return                 a 40 character hexadecimal key, safe to use as a file name
+     */
+    public static String keyFor(String imagePath, long lastModified, long length,
+                                int width, int height) {
+        final String source = imagePath + '\n' + lastModified + '\n' + length
+                + '\n' + width + 'x' + height;
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(UTF_8));
+            final char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     *  Looks up an entry and marks it as recently used
+     *
+     *  @param key              a key built by {@link #keyFor}
+     *  @return                 the committed file of the entry, or null on a miss
+     */
+    public synchronized File get(String key) {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        appendJournal(READ, key, -1);
+        return entryFile(key);
+    }
+
+    /**
+     *  Checks for an entry without marking it as recently used
+     *
+     *  @param key              a key built by {@link #keyFor}
+     *  @return                 true if a committed entry exists for the key
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     *  Writes a new entry. The data goes to a temporary file first, and only a complete
+     *  file, synced to the disk, is renamed into place and recorded in the journal.
+     *
+     *  @param key              a key built by {@link #keyFor}
+     *  @param writer           writes the entry's contents
+     *  @return                 true if the entry was committed
+     */
+    public boolean put(String key, EntryWriter writer) {
+        final File temp = new File(directory,
+                key + '.' + tempFileCounter.incrementAndGet() + TEMP_SUFFIX);
+        boolean isWritten = false;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            writer.write(out);
+            //  On disk before the rename, so a crash can never leave the final name
+            //  pointing at blocks that were not written yet
+            out.getFD().sync();
+            out.close();
+            out = null;
+            isWritten = true;
+        } catch (IOException e) {
+            isWritten = false;
+        } finally {
+            closeQuietly(out);
+        }
+        if (!isWritten) {
+            temp.delete();
+            return false;
+        }
+
+        synchronized (this) {
+            final File target = entryFile(key);
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                return false;
+            }
+            final Long previous = entries.put(key, target.length());
+            if (previous != null) {
+                size -= previous;
+                redundantOpCount++;
+            }
+            size += target.length();
+            appendJournal(CLEAN, key, target.length());
+            flushJournal();
+            trimToSize();
+            return true;
+        }
+    }
+
+    /**
+     *  Drops an entry, for example when its file turned out to be unreadable
+     *
+     *  @param key              a key built by {@link #keyFor}
+     */
+    public synchronized void remove(String key) {
+        final Long length = entries.remove(key);
+        if (length != null) {
+            size -= length;
+            entryFile(key).delete();
+            appendJournal(REMOVE, key, -1);
+            redundantOpCount += 2;
+        }
+    }
+
+    /**
+     *  Changes the byte budget, evicting entries straight away if the cache is now too big
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     *  @return                 the number of bytes used by committed entries
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     *  @return                 the number of committed entries
+     */
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    /**
+     *  Writes any buffered journal lines to disk
+     */
+    public synchronized void flush() {
+        flushJournal();
+    }
+
+    /**
+     *  Flushes and closes the journal. The cache must not be used afterwards.
+     */
+    public synchronized void close() {
+        flushJournal();
+        closeQuietly(journalWriter);
+        journalWriter = null;
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key);
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            entryFile(eldest.getKey()).delete();
+            appendJournal(REMOVE, eldest.getKey(), -1);
+            redundantOpCount += 2;
+        }
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                //  Keep appending to the old journal, compaction is only an optimisation
+            }
+        }
+    }
+
+    private void readJournal() throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!readJournalLine(line)) {
+                    //  A torn final line from a crash, keep everything before it
+                    break;
+                }
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private boolean readJournalLine(String line) {
+        final String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            return false;
+        }
+        final String key = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length == 3) {
+            final long length;
+            try {
+                length = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            final Long previous = entries.put(key, length);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += length;
+        } else if (READ.equals(parts[0])) {
+            //  The access-ordered map moves the entry to the most recent end
+            entries.get(key);
+        } else if (REMOVE.equals(parts[0])) {
+            final Long length = entries.remove(key);
+            if (length != null) {
+                size -= length;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *  Deletes temporary files left behind by a crash, and any entry the journal does
+     *  not know about or whose file no longer matches the recorded length
+     */
+    private void deleteUntrackedFiles() {
+        final HashSet<String> tracked = new HashSet<>();
+        final ArrayList<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            final File file = entryFile(entry.getKey());
+            if (file.length() == entry.getValue()) {
+                tracked.add(entry.getKey());
+            } else {
+                missing.add(entry.getKey());
+            }
+        }
+        for (String key : missing) {
+            size -= entries.remove(key);
+            entryFile(key).delete();
+        }
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.equals(JOURNAL_FILE) && !tracked.contains(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     *  Writes a compact journal holding one CLEAN line per entry, in LRU order, and
+     *  atomically swaps it in for the current one
+     */
+    private void rebuildJournal() throws IOException {
+        closeQuietly(journalWriter);
+
+        final Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalFileTemp), UTF_8));
+        try {
+            writer.write(MAGIC);
+            writer.write('\n');
+            writer.write(VERSION);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!journalFileTemp.renameTo(journalFile)) {
+            throw new IOException("Unable to replace journal " + journalFile);
+        }
+        redundantOpCount = 0;
+        journalWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalFile, true), UTF_8));
+    }
+
+    private void appendJournal(String op, String key, long length) {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.write(op);
+            journalWriter.write(' ');
+            journalWriter.write(key);
+            if (length >= 0) {
+                journalWriter.write(' ');
+                journalWriter.write(Long.toString(length));
+            }
+            journalWriter.write('\n');
+            if (READ.equals(op)) {
+                redundantOpCount++;
+            }
+        } catch (IOException e) {
+            //  The index in memory is still correct, only LRU order is lost on restart
+        }
+    }
+
+    private void flushJournal() {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.flush();
+        } catch (IOException e) {
+            //  See appendJournal()
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //  Nothing useful can be done
+            }
+        }
+    }
+}
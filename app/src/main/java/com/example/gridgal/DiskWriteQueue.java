@@ -0,0 +1,358 @@
+package com.example.gridgal;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ *  Write-behind queue for thumbnails on their way to disk, so that a fresh thumbnail
+ *  is shown as soon as it is decoded and the JPEG compression and file I/O happen
+ *  later, off the delivery path.
+ *
+ *  A single background thread writes the queue in batches: it waits a moment after
+ *  the first queued write so that the writes of a scroll are taken together, and
+ *  while the grid's own decodes are running. A thumbnail queued again before it is
+ *  written replaces the earlier write. Queued thumbnails are kept alive by the queue,
+ *  so it is bounded in bytes; past the budget, or when the system runs low on memory,
+ *  the oldest writes are dropped and those thumbnails are simply decoded again the
+ *  next time. {@link #flush()} writes everything without waiting, for when the app
+ *  leaves the foreground.
+ *
+ *  Until it is written, a queued thumbnail is served from the queue by
+ *  {@link #copyPending(String)}, so one that left the memory cache meanwhile is not
+ *  decoded again.
+ */
+public class DiskWriteQueue implements ComponentCallbacks2 {
+
+    private static final String TAG = "DiskWriteQueue";
+
+    //  Share of the app's memory class that queued thumbnails may hold (1/32 of the heap)
+    private static final int MEMORY_CLASS_DIVISOR = 32;
+    //  Wait after the first queued write, so the writes of a scroll go in one batch
+    private static final long BATCH_DELAY_MS = 500;
+    //  How long to wait while the grid's own decodes are running
+    private static final long FOREGROUND_BACKOFF_MS = 250;
+
+    private final Context appContext;
+    private final BitmapPool bitmapPool;
+    private final int maxBytes;
+    private int currentBytes;
+
+    //  Writes waiting for the writer thread, by disk key, oldest first
+    private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    //  The write the writer thread is working on, still counts as pending for lookups
+    private PendingWrite writing;
+    private boolean isFlushRequested;
+    private Thread writerThread;
+
+    private int writeCount;
+    private int mergeCount;
+    private int dropCount;
+
+    /**
+     *  A thumbnail waiting to be written, and what keeps its pixels alive meanwhile
+     */
+    private static class PendingWrite {
+        final String diskKey;
+        final int width;
+        final int height;
+        final Bitmap thumbnail;
+        //  The displayed drawable sharing the thumbnail's Bitmap, or null if the queue
+        //  owns the Bitmap and returns it to the pool once written
+        final RecyclingBitmapDrawable holder;
+
+        PendingWrite(String diskKey, int width, int height, Bitmap thumbnail,
+                     RecyclingBitmapDrawable holder) {
+            this.diskKey = diskKey;
+            this.width = width;
+            this.height = height;
+            this.thumbnail = thumbnail;
+            this.holder = holder;
+        }
+    }
+
+    private DiskWriteQueue(Context appContext, BitmapPool bitmapPool, int maxBytes) {
+        this.appContext = appContext;
+        this.bitmapPool = bitmapPool;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     *  Creates a queue sized from the device's memory class and registers it for
+     *  trim-memory callbacks on the application context
+     *
+     *  @param context          any context, only its application context is retained
+     *  @param bitmapPool       the pool that owned thumbnails go back to once written
+     *  @return                 a new, empty queue
+     */
+    public static DiskWriteQueue create(Context context, BitmapPool bitmapPool) {
+        final Context appContext = context.getApplicationContext();
+        final ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        final int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+
+        DiskWriteQueue queue = new DiskWriteQueue(appContext, bitmapPool,
+                memoryClassBytes / MEMORY_CLASS_DIVISOR);
+        appContext.registerComponentCallbacks(queue);
+        return queue;
+    }
+
+    /**
+     *  Queues a thumbnail to be saved to disk. Safe to call from any thread.
+     *
+     *  @param diskKey          the key to save the thumbnail under, see
+     *                          {@link Utils#getDiskKey(String, int, int)}
+     *  @param width            width of the thumbnail
+     *  @param height           height of the thumbnail
+     *  @param thumbnail        the software Bitmap to write, it must not be modified
+     *                          until written
+     *  @param holder           the drawable displaying the thumbnail, which the queue
+     *                          holds on to until the write is done, or null to hand
+     *                          the Bitmap over to the queue
+     */
+    public void enqueue(String diskKey, int width, int height, Bitmap thumbnail,
+                        RecyclingBitmapDrawable holder) {
+        if (holder != null) {
+            //  Counts as a display, so the Bitmap stays out of the pool while queued
+            holder.setIsDisplayed(true);
+        }
+        final PendingWrite write = new PendingWrite(diskKey, width, height, thumbnail, holder);
+        final ArrayList<PendingWrite> released = new ArrayList<>();
+        synchronized (this) {
+            final PendingWrite previous = pending.remove(diskKey);
+            if (previous != null) {
+                removeBytes(previous);
+                released.add(previous);
+                mergeCount++;
+            }
+            pending.put(diskKey, write);
+            currentBytes += ThumbnailMemoryCache.getBitmapBytes(thumbnail);
+            trimToSize(maxBytes, released);
+            if (writerThread == null) {
+                startWriter();
+            }
+            notifyAll();
+        }
+        //  Outside the lock, releasing may hand Bitmaps back to the pool
+        release(released);
+    }
+
+    /**
+     *  @return                 true if a thumbnail is queued, or being written, under the key
+     */
+    public synchronized boolean isPending(String diskKey) {
+        return findPending(diskKey) != null;
+    }
+
+    /**
+     *  Copies a thumbnail that is queued, or being written, into a pooled Bitmap, so a
+     *  load does not decode it again before it reaches disk. The copy is made with the
+     *  queue locked, so the queued Bitmap can not be released meanwhile.
+     *
+     *  @return                 a copy the caller owns, or null if nothing is pending
+     *                          under the key
+     */
+    public synchronized Bitmap copyPending(String diskKey) {
+        final PendingWrite write = findPending(diskKey);
+        if (write == null) {
+            return null;
+        }
+        final Bitmap thumbnail = write.thumbnail;
+        final Bitmap copy = bitmapPool.get(thumbnail.getWidth(), thumbnail.getHeight(),
+                thumbnail.getConfig());
+        if (copy == null) {
+            return thumbnail.copy(thumbnail.getConfig(), true);
+        }
+        copy.eraseColor(Color.TRANSPARENT);
+        new Canvas(copy).drawBitmap(thumbnail, 0, 0, null);
+        return copy;
+    }
+
+    private PendingWrite findPending(String diskKey) {
+        final PendingWrite write = pending.get(diskKey);
+        if (write == null && writing != null && writing.diskKey.equals(diskKey)) {
+            return writing;
+        }
+        return write;
+    }
+
+    /**
+     *  Asks the writer to write everything queued straight away and then flush the
+     *  disk stores. Does not wait for the writes, so it is safe on the UI thread.
+     */
+    public synchronized void flush() {
+        isFlushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     *  Drops queued writes, oldest first, until the queue fits in the given size
+     */
+    public void trimToSize(int size) {
+        final ArrayList<PendingWrite> released = new ArrayList<>();
+        synchronized (this) {
+            trimToSize(size, released);
+        }
+        release(released);
+    }
+
+    private void trimToSize(int size, ArrayList<PendingWrite> released) {
+        final Iterator<PendingWrite> oldestFirst = pending.values().iterator();
+        //  The newest write is kept even if it is over the budget on its own
+        while (currentBytes > size && pending.size() > (size > 0 ? 1 : 0)) {
+            final PendingWrite oldest = oldestFirst.next();
+            oldestFirst.remove();
+            removeBytes(oldest);
+            released.add(oldest);
+            dropCount++;
+        }
+    }
+
+    /**
+     *  Drops writes in proportion to how hard the system is asking for memory. The
+     *  hidden and background levels are left alone, they come right after the app
+     *  stopped and asked for a flush.
+     *
+     *  @param level            one of the {@link ComponentCallbacks2} TRIM_MEMORY levels
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level == TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        }
+        Log.i(TAG, "onTrimMemory(" + level + ") " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //  Queued thumbnails do not depend on the configuration
+    }
+
+    /**
+     *  @return                 a one-line summary of the queue's size and counters
+     */
+    public synchronized String getStats() {
+        return "size=" + currentBytes + "/" + maxBytes + " bytes"
+                + ", pending=" + pending.size()
+                + ", written=" + writeCount
+                + ", merged=" + mergeCount
+                + ", dropped=" + dropCount;
+    }
+
+    private void removeBytes(PendingWrite write) {
+        currentBytes -= ThumbnailMemoryCache.getBitmapBytes(write.thumbnail);
+    }
+
+    private void release(ArrayList<PendingWrite> writes) {
+        for (PendingWrite write : writes) {
+            release(write);
+        }
+    }
+
+    private void release(PendingWrite write) {
+        if (write.holder != null) {
+            write.holder.setIsDisplayed(false);
+        } else {
+            bitmapPool.put(write.thumbnail);
+        }
+    }
+
+    /**
+     *  Starts the writer thread, which runs below the decode threads' priority and
+     *  lives as long as the process
+     */
+    private void startWriter() {
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    while (true) {
+                        writeBatch();
+                    }
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Writer interrupted, queued thumbnails are not saved");
+                }
+            }
+        }, TAG);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     *  Waits for a batch of writes and writes it
+     */
+    private void writeBatch() throws InterruptedException {
+        final boolean isFlush;
+        synchronized (this) {
+            while (pending.isEmpty() && !isFlushRequested) {
+                wait();
+            }
+            final long batchEnd = SystemClock.uptimeMillis() + BATCH_DELAY_MS;
+            while (!isFlushRequested && currentBytes < maxBytes / 2) {
+                final long remaining = batchEnd - SystemClock.uptimeMillis();
+                if (remaining > 0) {
+                    wait(remaining);
+                } else if (DecodeScheduler.getExecutor().getActiveCount() > 0) {
+                    wait(FOREGROUND_BACKOFF_MS);
+                } else {
+                    break;
+                }
+            }
+            isFlush = isFlushRequested;
+            isFlushRequested = false;
+        }
+
+        while (true) {
+            final PendingWrite write;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    writing = null;
+                    break;
+                }
+                //  Oldest first, taken one at a time so new writes still merge and the
+                //  budget still applies while the batch is written
+                final Iterator<PendingWrite> oldestFirst = pending.values().iterator();
+                write = oldestFirst.next();
+                oldestFirst.remove();
+                writing = write;
+            }
+            try {
+                Utils.saveThumbnailToDisk(appContext, write.diskKey, write.width,
+                        write.height, write.thumbnail, true);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to save thumbnail " + write.diskKey, e);
+            }
+            synchronized (this) {
+                removeBytes(write);
+                writeCount++;
+                //  Not served from the queue any more, it can be released
+                writing = null;
+            }
+            release(write);
+        }
+
+        if (isFlush) {
+            Utils.flushDiskStores();
+        }
+    }
+}
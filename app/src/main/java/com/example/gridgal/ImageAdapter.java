@@ -1,21 +1,29 @@
 package com.example.gridgal;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
 /**
  * Created by witwiki on 9/26/2017.
  */
 
-public class ImageAdapter extends BaseAdapter {
+public class ImageAdapter extends RecyclerView.Adapter<ImageAdapter.ViewHolder> {
 
-    private static Context mContext;
+    private final Context mContext;
+    //  Side of a thumbnail view in pixels, filling its column
+    private final int mCellSize;
+    //  Side of the thumbnails decoded for the views, rounded up to a size bucket
+    private final int mThumbnailSize;
 
     //  Initialise the String array of file paths of the MediaStore DATA request
 //    private static int photoUrls[] = {
@@ -24,54 +32,157 @@ public class ImageAdapter extends BaseAdapter {
 //            R.drawable.ic_android_black_24dp,
 //            R.drawable.ic_laptop_mac_black_24dp};
 
-    private static String[] photoUrls = Utils.getImagePaths(mContext);
+    //  Images of the MediaStore request, filled in page by page by a MediaStoreLoader
+    private final ArrayList<ImageEntry> mImages = new ArrayList<>();
+
+    /**
+     *  Holds the thumbnail view of one grid cell
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView imageView;
 
-    public ImageAdapter(Context context) {
+        ViewHolder(View itemView) {
+            super(itemView);
+            imageView = itemView.findViewById(R.id.image_view);
+        }
+    }
+
+    /**
+     *  @param context          the activity showing the grid
+     *  @param columnWidth      width of a grid column in pixels
+     */
+    public ImageAdapter(Context context, int columnWidth) {
         this.mContext = context;
+        final Resources resources = context.getResources();
+        mCellSize = columnWidth - 2 * resources.getDimensionPixelSize(R.dimen.thumbnail_margin);
+        mThumbnailSize = ThumbnailSizing.getSizeBucket(
+                mCellSize - 2 * resources.getDimensionPixelSize(R.dimen.thumbnail_padding));
+        //  Items are identified by their MediaStore _ID, so changes animate and rebinds
+        //  of unchanged cells are skipped
+        setHasStableIds(true);
+    }
+
+    /**
+     *  Appends a page of images loaded by {@link MediaStoreLoader}, growing the grid
+     *
+     *  @param page             the images to append, in display order
+     */
+    public void appendImages(List<ImageEntry> page) {
+        final int start = mImages.size();
+        mImages.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    /**
+     *  @return                 the MediaStore _ID of every image in the grid
+     */
+    public long[] getImageIds() {
+        final long[] ids = new long[mImages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mImages.get(i).id;
+        }
+        return ids;
+    }
+
+    /**
+     *  Applies the changes found by a {@link MediaStoreSync}. Images that are still
+     *  there keep their keys, so their thumbnails are served from the memory cache.
+     *
+     *  @param inserted         new images, newest first
+     *  @param removedIds       MediaStore _IDs of images to drop from the grid
+     */
+    public void applyChanges(List<ImageEntry> inserted, long[] removedIds) {
+        if (removedIds.length > 0) {
+            final HashSet<Long> removed = new HashSet<>(removedIds.length * 2);
+            for (long id : removedIds) {
+                removed.add(id);
+            }
+            //  Walk backwards, so the positions still to visit do not move
+            for (int position = mImages.size() - 1; position >= 0; position--) {
+                if (removed.contains(mImages.get(position).id)) {
+                    mImages.remove(position);
+                    notifyItemRemoved(position);
+                }
+            }
+        }
+        //  Keep the grid ordered newest first, new images almost always go to the top
+        int position = 0;
+        for (ImageEntry entry : inserted) {
+            while (position < mImages.size() && mImages.get(position).dateAdded > entry.dateAdded) {
+                position++;
+            }
+            mImages.add(position, entry);
+            notifyItemInserted(position++);
+        }
+    }
+
+    /**
+     *  @return                 a copy of the images in the grid, in display order, that
+     *                          may be read from any thread
+     */
+    public List<ImageEntry> copyImages() {
+        return new ArrayList<>(mImages);
+    }
+
+    /**
+     *  @return                 the side in pixels of the thumbnails shown in the grid
+     */
+    public int getThumbnailSize() {
+        return mThumbnailSize;
+    }
+
+    /**
+     *  @return                 the image at the given position
+     */
+    public ImageEntry getImage(int position) {
+        return mImages.get(position);
     }
 
     @Override
-    public int getCount() {
-        return photoUrls.length;
+    public int getItemCount() {
+        return mImages.size();
     }
 
     @Override
     public long getItemId(int position) {
-        return 0;
+        return mImages.get(position).id;
     }
 
     @Override
-    public Object getItem(int position) {
-        return null;
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final LayoutInflater layoutInflater = LayoutInflater.from(mContext);
+        final ViewHolder holder = new ViewHolder(
+                layoutInflater.inflate(R.layout.image_layout, parent, false));
+        final ViewGroup.LayoutParams params = holder.imageView.getLayoutParams();
+        params.width = mCellSize;
+        params.height = mCellSize;
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                //  Open the image full screen, from the Activity hosting the grid
+                final int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    final Context context = view.getContext();
+                    context.startActivity(ViewerActivity.newIntent(context, mImages.get(position),
+                            getThumbnailSize()));
+                }
+            }
+        });
+        return holder;
     }
 
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-
-        if (convertView == null) {
-            final LayoutInflater layoutInflater = LayoutInflater.from(mContext);
-            convertView = layoutInflater.inflate(R.layout.image_layout, null);
-        }
-
-        final ImageView imageView = convertView.findViewById(R.id.image_view);
-
-        //  Load Bitmaps to GridView
-        Utils.loadBitmap(imageView, photoUrls[position], 100, 100, mContext);
-
-//        imageView.setOnClickListener(new View.OnClickListener(){
-//            boolean isImageFitToScreen;
-//            @Override
-//            public void onClick(View view) {
-//                isImageFitToScreen=true;
-//                imageView.setLayoutParams(new
-//                        LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT,
-//                        LinearLayout.LayoutParams.MATCH_PARENT));
-//                imageView.setScaleType(ImageView.ScaleType.FIT_XY);
-//            }
-//        });
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        //  Load Bitmaps to the grid
+        Utils.loadBitmap(holder.imageView, mImages.get(position), mThumbnailSize, mThumbnailSize,
+                mContext);
+    }
 
-        return convertView;
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        //  The cell left the screen and its view cache, stop loading for it and let go
+        //  of its bitmap
+        Utils.releaseView(holder.imageView);
     }
 
 }
-
@@ -0,0 +1,47 @@
+package com.example.gridgal;
+
+/**
+ *  One image of the MediaStore library, as shown in a grid cell
+ */
+public class ImageEntry {
+    //  MediaStore.Images.Media._ID
+    public final long id;
+    //  MediaStore.Images.Media.DATA, the file path of the full-size image
+    public final String path;
+    //  MediaStore.Images.Media.DATE_ADDED, in seconds since the epoch
+    public final long dateAdded;
+
+    public ImageEntry(long id, String path, long dateAdded) {
+        this.id = id;
+        this.path = path;
+        this.dateAdded = dateAdded;
+    }
+
+    /**
+     *  @param width            width of the thumbnail
+     *  @param height           height of the thumbnail
+     *  @return                 the memory cache key of this image's thumbnail
+     */
+    public long getCacheKey(int width, int height) {
+        return cacheKeyFor(id, width, height);
+    }
+
+    /**
+     *  Packs the memory cache key of a thumbnail into a long, so that looking it up
+     *  neither allocates nor hashes a String. Each dimension takes 12 bits and the _ID
+     *  the bits above them, which covers any MediaStore _ID and thumbnail size bucket.
+     *
+     *  @param id               MediaStore _ID of the image
+     *  @param width            width of the thumbnail, below 4096
+     *  @param height           height of the thumbnail, below 4096
+     *  @return                 the packed key
+     */
+    public static long cacheKeyFor(long id, int width, int height) {
+        return (id << 24) | ((width & 0xfffL) << 12) | (height & 0xfffL);
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + path;
+    }
+}
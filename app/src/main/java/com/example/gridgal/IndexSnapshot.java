@@ -0,0 +1,236 @@
+package com.example.gridgal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *  The last known gallery index, saved in a compact binary file so that the next
+ *  launch can show the grid before the MediaStore query has returned.
+ *
+ *  Entries are stored in display order, with the {@link PlaceholderColors} of their
+ *  images. Numbers are variable-length and each path only stores what differs from
+ *  the one before it, as images of the same folder share most of their path, so a
+ *  snapshot takes about 24 bytes per image. The file is written to a temporary file
+ *  and renamed into place, so a crash never leaves a half written snapshot. It has no
+ *  Android dependencies, so it can be unit tested.
+ *
+ *  Format, after a header of the magic number, the version and the entry count:
+ *      _ID                     varint
+ *      DATE_ADDED              varint
+ *      shared path bytes       varint, bytes in common with the previous path
+ *      path suffix             varint length, then the remaining UTF-8 bytes
+ *      placeholder color       int, {@link PlaceholderColors#NO_COLOR} if not known
+ */
+public final class IndexSnapshot {
+
+    private static final int MAGIC = 0x47474958;
+    private static final int VERSION = 2;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     *  A private constructor is created so no one should ever create a
+     *  {@link IndexSnapshot} object, it only holds static helpers.
+     */
+    private IndexSnapshot() {
+    }
+
+    /**
+     *  Replaces the snapshot with the given images. Does disk I/O, so must not be
+     *  called on the UI thread.
+     *
+     *  @param file             the snapshot file
+     *  @param images           the images in display order
+     *  @param colors           the placeholder colors to save with the images
+     */
+    public static void write(File file, List<ImageEntry> images, PlaceholderColors colors)
+            throws IOException {
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        boolean isWritten = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(images.size());
+            byte[] previousPath = new byte[0];
+            for (ImageEntry entry : images) {
+                final byte[] path = entry.path.getBytes(UTF_8);
+                int shared = 0;
+                final int maxShared = Math.min(path.length, previousPath.length);
+                while (shared < maxShared && path[shared] == previousPath[shared]) {
+                    shared++;
+                }
+                writeVarLong(out, entry.id);
+                writeVarLong(out, entry.dateAdded);
+                writeVarLong(out, shared);
+                writeVarLong(out, path.length - shared);
+                out.write(path, shared, path.length - shared);
+                out.writeInt(colors.get(entry.id));
+                previousPath = path;
+            }
+            out.close();
+            isWritten = true;
+        } finally {
+            if (!isWritten) {
+                out.close();
+                temp.delete();
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     *  Reads a snapshot one entry at a time, so the first screen can be shown before
+     *  the rest of the file is read
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int count;
+        private int readCount;
+        private byte[] previousPath = new byte[0];
+        private int color;
+
+        /**
+         *  Opens a snapshot and checks its header. Does disk I/O, so must not be
+         *  called on the UI thread.
+         *
+         *  @throws IOException     if the file is missing, or not a snapshot of this version
+         */
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not an index snapshot: " + file);
+                }
+                count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Bad entry count " + count + " in " + file);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         *  @return                 the number of images in the snapshot
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         *  @return                 the next image, or null after the last one
+         *  @throws IOException     if the file is truncated or damaged
+         */
+        public ImageEntry next() throws IOException {
+            if (readCount == count) {
+                return null;
+            }
+            final long id = readVarLong(in);
+            final long dateAdded = readVarLong(in);
+            final long shared = readVarLong(in);
+            final long suffixLength = readVarLong(in);
+            if (shared > previousPath.length || suffixLength > Integer.MAX_VALUE - shared) {
+                throw new IOException("Bad path of entry " + readCount);
+            }
+            final byte[] path = Arrays.copyOf(previousPath, (int) (shared + suffixLength));
+            in.readFully(path, (int) shared, (int) suffixLength);
+            color = in.readInt();
+            previousPath = path;
+            readCount++;
+            return new ImageEntry(id, new String(path, UTF_8), dateAdded);
+        }
+
+        /**
+         *  @return                 the placeholder color of the image last returned by
+         *                          {@link #next()}, or {@link PlaceholderColors#NO_COLOR}
+         */
+        public int getColor() {
+            return color;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     *  Finds what changed between the images shown from a snapshot and a fresh
+     *  MediaStore query, in the form {@link ImageAdapter#applyChanges(List, long[])}
+     *  takes. An image whose path or date changed is removed and inserted again.
+     *
+     *  @param known            the images in the snapshot
+     *  @param fresh            the images in the MediaStore, newest first
+     *  @param inserted         receives the images to add, newest first
+     *  @return                 the _IDs of the images to remove
+     */
+    public static long[] reconcile(List<ImageEntry> known, List<ImageEntry> fresh,
+                                   List<ImageEntry> inserted) {
+        final HashMap<Long, ImageEntry> freshById = new HashMap<>(fresh.size() * 2);
+        for (ImageEntry entry : fresh) {
+            freshById.put(entry.id, entry);
+        }
+        final HashMap<Long, ImageEntry> kept = new HashMap<>(known.size() * 2);
+        long[] removed = new long[16];
+        int removedCount = 0;
+        for (ImageEntry entry : known) {
+            final ImageEntry current = freshById.get(entry.id);
+            if (current != null && current.dateAdded == entry.dateAdded
+                    && current.path.equals(entry.path)) {
+                kept.put(entry.id, entry);
+            } else {
+                if (removedCount == removed.length) {
+                    removed = Arrays.copyOf(removed, removedCount * 2);
+                }
+                removed[removedCount++] = entry.id;
+            }
+        }
+        for (ImageEntry entry : fresh) {
+            if (!kept.containsKey(entry.id)) {
+                inserted.add(entry);
+            }
+        }
+        return Arrays.copyOf(removed, removedCount);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
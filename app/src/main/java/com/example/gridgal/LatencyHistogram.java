@@ -0,0 +1,132 @@
+package com.example.gridgal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  A lock-free histogram of durations with power-of-two buckets in microseconds.
+ *
+ *  Bucket 0 counts durations under 1us and bucket i counts durations from 2^(i-1)us
+ *  up to 2^i us, so the last bucket starts at about 17 seconds and takes everything
+ *  longer. Recording is a few atomic adds and allocates nothing, so it can be called
+ *  for every decode on any thread. Percentiles are reported as the upper bound of the
+ *  bucket they fall in, which is accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKET_COUNT = 26;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     *  @param nanos            the duration to record, negative durations count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *  @return                 the mean duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+        final long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     *  @param percentile       between 0 and 100
+     *  @return                 the upper bound in nanoseconds of the bucket holding the
+     *                          given percentile, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+        long total = 0;
+        final long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                //  No duration is longer than the maximum, which also bounds the
+                //  open-ended last bucket
+                return i == BUCKET_COUNT - 1
+                        ? maxNanos.get() : Math.min(upperBoundNanos(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     *  @return                 the number of durations recorded in a bucket
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     *  @return                 a one-line summary of the count, mean, percentiles and maximum
+     */
+    public String getStats() {
+        return "count=" + getCount()
+                + ", mean=" + formatMillis(getMeanNanos())
+                + ", p50=" + formatMillis(getPercentileNanos(50))
+                + ", p90=" + formatMillis(getPercentileNanos(90))
+                + ", p99=" + formatMillis(getPercentileNanos(99))
+                + ", max=" + formatMillis(getMaxNanos());
+    }
+
+    static int bucketOf(long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    static long upperBoundNanos(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    /**
+     *  Formats a duration in milliseconds with one decimal, without a Formatter
+     */
+    static String formatMillis(long nanos) {
+        final long tenths = (nanos + 50000) / 100000;
+        return (tenths / 10) + "." + (tenths % 10) + "ms";
+    }
+}
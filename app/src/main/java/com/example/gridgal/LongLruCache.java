@@ -0,0 +1,370 @@
+package com.example.gridgal;
+
+import java.util.Arrays;
+
+/**
+ *  A size-bounded LRU cache keyed by primitive longs, used where
+ *  {@link android.support.v4.util.LruCache} would box every key or hash a String.
+ *
+ *  Entries live in parallel arrays indexed by slot: an open-addressing table with
+ *  linear probing for the keys, and a doubly linked list threaded through the same
+ *  slots for the access order. Removal shifts the following entries of the probe run
+ *  back instead of leaving tombstones, so lookups never slow down as entries churn.
+ *  The table is kept at most half full and grows by doubling; lookups, hits and
+ *  replacing the value of a present key allocate nothing.
+ *
+ *  Like LruCache, every method locks the cache and subclasses may override
+ *  {@link #sizeOf(long, Object)} and {@link #entryRemoved(boolean, long, Object, Object)}.
+ *  Unlike LruCache, entryRemoved is called with the lock held, so it must not call
+ *  back into the cache.
+ *
+ *  @param <V>              the type of the cached values
+ */
+public class LongLruCache<V> {
+
+    //  Marks an empty slot, so it can not be used as a key
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int NONE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    //  Access order links between slots, from the eldest (head) to the newest (tail)
+    private int[] before;
+    private int[] after;
+    private int head = NONE;
+    private int tail = NONE;
+    private int mask;
+    private int count;
+
+    private long size;
+    private long maxSize;
+
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     *  @param maxSize          the budget of the cache, in the units of {@link #sizeOf(long, Object)}
+     */
+    public LongLruCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     *  Returns the value for a key and moves it to the newest end of the access order
+     *
+     *  @return                 the value, or null if the key is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(long key) {
+        final int slot = indexOf(key);
+        if (slot == NONE) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        moveToTail(slot);
+        return (V) values[slot];
+    }
+
+    /**
+     *  Checks for a key without counting a hit or changing the access order
+     */
+    public synchronized boolean containsKey(long key) {
+        return indexOf(key) != NONE;
+    }
+
+    /**
+     *  Caches a value as the newest entry, then evicts the eldest entries until the
+     *  cache fits its budget again
+     *
+     *  @return                 the value previously cached for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long key, V value) {
+        if (key == EMPTY || value == null) {
+            throw new IllegalArgumentException("key == Long.MIN_VALUE || value == null");
+        }
+        putCount++;
+        final int slot = indexOf(key);
+        V previous = null;
+        if (slot != NONE) {
+            previous = (V) values[slot];
+            size -= safeSizeOf(key, previous);
+            values[slot] = value;
+            moveToTail(slot);
+        } else {
+            if ((count + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            insert(key, value);
+        }
+        size += safeSizeOf(key, value);
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     *  @return                 the value that was cached for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        final int slot = indexOf(key);
+        if (slot == NONE) {
+            return null;
+        }
+        final V previous = (V) values[slot];
+        unlink(slot);
+        delete(slot);
+        size -= safeSizeOf(key, previous);
+        entryRemoved(false, key, previous, null);
+        return previous;
+    }
+
+    /**
+     *  Evicts the eldest entries until the total size is at most the given size
+     *
+     *  @param maxSize          the size to trim to, or -1 to evict everything
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && head != NONE) {
+            final int slot = head;
+            final long key = keys[slot];
+            final V value = (V) values[slot];
+            unlink(slot);
+            delete(slot);
+            size -= safeSizeOf(key, value);
+            evictionCount++;
+            entryRemoved(true, key, value, null);
+        }
+        if (size < 0 || (head == NONE && size != 0)) {
+            throw new IllegalStateException(getClass().getName()
+                    + ".sizeOf() is reporting inconsistent results");
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     *  Measures an entry in the units of the budget. The default counts entries.
+     *  An entry's size must not change while it is cached.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    /**
+     *  Called with the cache locked when an entry is evicted, removed or replaced
+     *
+     *  @param evicted          true if the entry was removed to make space
+     *  @param newValue         the replacing value, or null if the key was removed
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    public synchronized final long size() {
+        return size;
+    }
+
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     *  @return                 the number of cached entries
+     */
+    public synchronized final int entryCount() {
+        return count;
+    }
+
+    public synchronized final int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     *  @return                 the cached keys from the eldest to the newest
+     */
+    public synchronized final long[] keysInAccessOrder() {
+        final long[] ordered = new long[count];
+        int i = 0;
+        for (int slot = head; slot != NONE; slot = after[slot]) {
+            ordered[i++] = keys[slot];
+        }
+        return ordered;
+    }
+
+    private int safeSizeOf(long key, V value) {
+        final int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        before = new int[capacity];
+        after = new int[capacity];
+        mask = capacity - 1;
+        head = NONE;
+        tail = NONE;
+        count = 0;
+    }
+
+    /**
+     *  Moves every entry into a table of the given capacity, keeping the access order
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        final int[] oldAfter = after;
+        final int oldHead = head;
+        allocate(capacity);
+        for (int slot = oldHead; slot != NONE; slot = oldAfter[slot]) {
+            insert(oldKeys[slot], oldValues[slot]);
+        }
+    }
+
+    /**
+     *  Stores a key that is not in the table yet, as the newest entry
+     */
+    private void insert(long key, Object value) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        count++;
+        linkAtTail(slot);
+    }
+
+    private int indexOf(long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            final long candidate = keys[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == EMPTY) {
+                return NONE;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     *  Empties an unlinked slot, shifting back later entries of its probe run that
+     *  would otherwise no longer be reachable from their home slot
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        count--;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            final int home = hash(keys[next]) & mask;
+            //  Move the entry unless its home lies cyclically after the hole
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    /**
+     *  Moves a linked entry to an empty slot, repointing its neighbours at it
+     */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        values[to] = values[from];
+        before[to] = before[from];
+        after[to] = after[from];
+        if (before[to] != NONE) {
+            after[before[to]] = to;
+        } else {
+            head = to;
+        }
+        if (after[to] != NONE) {
+            before[after[to]] = to;
+        } else {
+            tail = to;
+        }
+        keys[from] = EMPTY;
+        values[from] = null;
+    }
+
+    private void linkAtTail(int slot) {
+        before[slot] = tail;
+        after[slot] = NONE;
+        if (tail != NONE) {
+            after[tail] = slot;
+        } else {
+            head = slot;
+        }
+        tail = slot;
+    }
+
+    private void unlink(int slot) {
+        final int previous = before[slot];
+        final int next = after[slot];
+        if (previous != NONE) {
+            after[previous] = next;
+        } else {
+            head = next;
+        }
+        if (next != NONE) {
+            before[next] = previous;
+        } else {
+            tail = previous;
+        }
+    }
+
+    private void moveToTail(int slot) {
+        if (slot != tail) {
+            unlink(slot);
+            linkAtTail(slot);
+        }
+    }
+
+    /**
+     *  Spreads the bits of a key, packed keys differ mostly in their high bits
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -5,19 +5,29 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.media.Image;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.GridView;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.List;
 
 import static android.Manifest.permission.READ_EXTERNAL_STORAGE;
 
@@ -27,11 +37,31 @@ public class MainActivity extends AppCompatActivity {
      * (Choice of a random integer as long as it is >=0)
      */
     private static final int READ_EXTERNAL_STORAGE_PERMISSIONS_CODE = 1;
+    //  How often the metrics overlay is refreshed while visible
+    private static final long METRICS_OVERLAY_INTERVAL_MS = 1000;
+    //  The last known index, shown at launch while the MediaStore is queried
+    private static final String INDEX_SNAPSHOT_FILE = "index.snapshot";
     private static Context mContext;
+    private ThumbnailIndexer mThumbnailIndexer;
+    private ImageAdapter mImageAdapter;
+    private MediaStoreLoader mMediaStoreLoader;
+    private MediaStoreSync mMediaStoreSync;
+    //  Set when the grid has images the snapshot does not, and cleared once it is written
+    private boolean mIsSnapshotStale;
+    private TextView mMetricsOverlay;
+    private final Handler mMetricsHandler = new Handler();
+    private final Runnable mUpdateMetricsOverlay = new Runnable() {
+        @Override
+        public void run() {
+            mMetricsOverlay.setText(PipelineMetrics.getSummary());
+            mMetricsHandler.postDelayed(this, METRICS_OVERLAY_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        PipelineMetrics.markLaunch();
         setContentView(R.layout.activity_main);
         mContext = getApplicationContext();
         /**
@@ -41,9 +71,29 @@ public class MainActivity extends AppCompatActivity {
          */
         getUserPermission(READ_EXTERNAL_STORAGE, READ_EXTERNAL_STORAGE_PERMISSIONS_CODE);
 
-        GridView gridView = (GridView)findViewById(R.id.grid_view);
-        ImageAdapter imageAdapter = new ImageAdapter(this);
-        gridView.setAdapter(imageAdapter);
+        RecyclerView gridView = (RecyclerView)findViewById(R.id.grid_view);
+        //  As many fixed-width columns as fit, like the GridView's auto_fit did
+        final int screenWidth = getResources().getDisplayMetrics().widthPixels;
+        final int spanCount = Math.max(1, screenWidth
+                / getResources().getDimensionPixelSize(R.dimen.grid_column_width));
+        final GridLayoutManager layoutManager = new GridLayoutManager(this, spanCount);
+        //  Create and bind the next row during idle frame time (Lollipop and up)
+        layoutManager.setItemPrefetchEnabled(true);
+        gridView.setLayoutManager(layoutManager);
+        gridView.setHasFixedSize(true);
+        //  Keep about three rows of cells around for reuse instead of the default five views
+        gridView.getRecycledViewPool().setMaxRecycledViews(0, spanCount * 3);
+        //  Thumbnails are sized from the actual column width, so they match the density
+        mImageAdapter = new ImageAdapter(this, screenWidth / spanCount);
+        gridView.setAdapter(mImageAdapter);
+        //  Treat a fling faster than a third of a column per frame as too fast to decode for
+        gridView.addOnScrollListener(new ScrollPrefetcher(this, layoutManager, mImageAdapter,
+                getResources().getDimensionPixelSize(R.dimen.grid_column_width) / 3));
+        if (getResources().getBoolean(R.bool.show_pipeline_metrics)) {
+            mMetricsOverlay = (TextView) findViewById(R.id.metrics_overlay);
+            mMetricsOverlay.setVisibility(View.VISIBLE);
+        }
+        loadImages();
 
 //        gridView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 //            @Override
@@ -55,10 +105,165 @@ public class MainActivity extends AppCompatActivity {
 //        });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mMediaStoreLoader != null) {
+            mMediaStoreLoader.cancel(false);
+        }
+        if (mMediaStoreSync != null) {
+            mMediaStoreSync.unregister();
+        }
+    }
+
+    /**
+     *  Queries the MediaStore in the background once the storage permission has been
+     *  granted, adding each page of results to the grid as it arrives. The last known
+     *  index is shown first, if one was saved.
+     */
+    private void loadImages() {
+        if (mMediaStoreLoader != null || ContextCompat.checkSelfPermission(this,
+                READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        mMediaStoreLoader = new MediaStoreLoader(this, getSnapshotFile(),
+                new MediaStoreLoader.Callback() {
+            @Override
+            public void onImagesLoaded(List<ImageEntry> page) {
+                mImageAdapter.appendImages(page);
+            }
+
+            @Override
+            public void onImagesChanged(List<ImageEntry> inserted, long[] removedIds) {
+                mImageAdapter.applyChanges(inserted, removedIds);
+                mIsSnapshotStale = true;
+            }
+
+            @Override
+            public void onLoadFinished(int count) {
+                Log.v("TAG", "Loaded " + count + " images");
+                if (!mMediaStoreLoader.isFromSnapshot()) {
+                    mIsSnapshotStale = true;
+                }
+                startMediaStoreSync();
+            }
+        });
+        mMediaStoreLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     *  Follows changes to the MediaStore once the initial load is done, applying only
+     *  the inserted and removed images to the grid
+     */
+    private void startMediaStoreSync() {
+        if (mMediaStoreSync != null) {
+            return;
+        }
+        mMediaStoreSync = new MediaStoreSync(this, new Handler(), new MediaStoreSync.Listener() {
+            @Override
+            public long[] getKnownIds() {
+                return mImageAdapter.getImageIds();
+            }
+
+            @Override
+            public void onImagesChanged(List<ImageEntry> inserted, long[] removedIds) {
+                mImageAdapter.applyChanges(inserted, removedIds);
+                mIsSnapshotStale = true;
+            }
+        });
+        mMediaStoreSync.register();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        startThumbnailIndexer();
+        if (mMetricsOverlay != null) {
+            mMetricsHandler.post(mUpdateMetricsOverlay);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mMetricsHandler.removeCallbacks(mUpdateMetricsOverlay);
+        if (mThumbnailIndexer != null) {
+            mThumbnailIndexer.stop();
+        }
+        //  Save the thumbnails still waiting for disk while the process is sure to live
+        Utils.getDiskWriteQueue(this).flush();
+        saveSnapshot();
+    }
+
+    private File getSnapshotFile() {
+        return new File(getCacheDir(), INDEX_SNAPSHOT_FILE);
+    }
+
+    /**
+     *  Saves the images of the grid and their placeholder colors as the snapshot for
+     *  the next launch, in the background, if either changed since it was last saved
+     */
+    private void saveSnapshot() {
+        final PlaceholderColors colors = Utils.getPlaceholderColors();
+        //  New colors alone are only saved once the grid holds the whole library
+        final boolean isColorsChanged = colors.isChanged() && mMediaStoreSync != null;
+        if (!mIsSnapshotStale && !isColorsChanged) {
+            return;
+        }
+        mIsSnapshotStale = false;
+        colors.clearChanged();
+        final File snapshotFile = getSnapshotFile();
+        final List<ImageEntry> images = mImageAdapter.copyImages();
+        //  Serial, so that two quick stops never write the file at the same time
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    IndexSnapshot.write(snapshotFile, images, colors);
+                } catch (IOException e) {
+                    Log.w("TAG", "Unable to save the index snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     *  Starts pre-generating disk thumbnails for the whole library, if enabled in
+     *  the config resources and the storage permission has been granted
+     */
+    private void startThumbnailIndexer() {
+        if (!getResources().getBoolean(R.bool.pregenerate_thumbnails)
+                || ContextCompat.checkSelfPermission(this, READ_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        if (mThumbnailIndexer == null) {
+            mThumbnailIndexer = new ThumbnailIndexer(this,
+                    mImageAdapter.getThumbnailSize(), mImageAdapter.getThumbnailSize());
+        }
+        mThumbnailIndexer.start();
+    }
+
     public static Context getContext() {
         return mContext;
     }
 
+    /**
+     *  Adds the thumbnail pipeline metrics and cache statistics to
+     *  {@code adb shell dumpsys activity com.example.gridgal/.MainActivity}
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PipelineMetrics.dump(prefix, writer);
+        writer.println(prefix + "  memory cache " + Utils.getMemoryCache(this).getStats());
+        writer.println(prefix + "  bitmap pool " + Utils.getBitmapPool(this).getStats());
+        writer.println(prefix + "  disk writes " + Utils.getDiskWriteQueue(this).getStats());
+        writer.println(prefix + "  decode queue " + DecodeScheduler.getExecutor().getQueue().size()
+                + ", dropped=" + DecodeScheduler.getDropCount()
+                + ", threads=" + DecodeScheduler.getPoolSize());
+    }
+
     /** Generic private method to request Dangerous Permissions (in this case, "READ_EXTERNAL_STORAGE") */
     private void getUserPermission(String requestedPerm, Integer requestedCode){
         //  Checking if the Build version is API greater than 22
@@ -97,6 +302,8 @@ public class MainActivity extends AppCompatActivity {
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED){
                     if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED){
                         Toast.makeText(MainActivity.this, "Permission Granted", Toast.LENGTH_SHORT).show();
+                        loadImages();
+                        startThumbnailIndexer();
                     }
                 } else {
                     //  Permission Denied
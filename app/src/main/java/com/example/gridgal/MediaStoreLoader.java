@@ -0,0 +1,197 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Runs the MediaStore images query off the UI thread and delivers the results in
+ *  pages, so the grid can show its first screen as soon as the first rows are read
+ *  instead of waiting for the whole library.
+ *
+ *  The first page is small so that it arrives quickly, later pages are larger to
+ *  keep the number of UI updates down.
+ *
+ *  If an {@link IndexSnapshot} of the last known index exists, the pages are read
+ *  from it instead, which takes a fraction of the query's time on a large library.
+ *  The query still runs afterwards, and only the differences it finds are delivered.
+ */
+public class MediaStoreLoader extends AsyncTask<Void, List<ImageEntry>, Integer> {
+
+    private static final String TAG = "MediaStoreLoader";
+
+    //  Enough for the first screen of the grid
+    private static final int FIRST_PAGE_SIZE = 64;
+    private static final int PAGE_SIZE = 1024;
+
+    /**
+     *  Receives the query results on the UI thread
+     */
+    public interface Callback {
+        //  Called once per page, in query order (newest first)
+        void onImagesLoaded(List<ImageEntry> page);
+
+        //  Called after the pages of a snapshot, with what the MediaStore query found
+        //  had changed since: new images (newest first) and the IDs of images to drop
+        void onImagesChanged(List<ImageEntry> inserted, long[] removedIds);
+
+        //  Called after the last page with the total number of images
+        void onLoadFinished(int count);
+    }
+
+    private final Context mContext;
+    private final File mSnapshotFile;
+    private final Callback mCallback;
+    //  Set when the pages came from the snapshot, with the differences the query found
+    private boolean mIsFromSnapshot;
+    private final ArrayList<ImageEntry> mInserted = new ArrayList<>();
+    private long[] mRemovedIds = new long[0];
+
+    /**
+     *  @param context          any context, only its application context is retained
+     *  @param snapshotFile     the {@link IndexSnapshot} to show first if it exists
+     *  @param callback         receives the images on the UI thread
+     */
+    public MediaStoreLoader(Context context, File snapshotFile, Callback callback) {
+        mContext = context.getApplicationContext();
+        mSnapshotFile = snapshotFile;
+        mCallback = callback;
+    }
+
+    /**
+     *  @return                 true if the images were delivered from the snapshot, in
+     *                          which case the snapshot is still up to date unless
+     *                          {@link Callback#onImagesChanged(List, long[])} was called
+     */
+    public boolean isFromSnapshot() {
+        return mIsFromSnapshot;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        final long startTime = android.os.SystemClock.uptimeMillis();
+        final List<ImageEntry> snapshot = readSnapshot();
+        if (snapshot != null) {
+            mIsFromSnapshot = true;
+            Log.v(TAG, "Read " + snapshot.size() + " images from the snapshot in "
+                    + (android.os.SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+
+        final Cursor cursor = Utils.queryImages(mContext, null, null);
+        if (cursor == null) {
+            return snapshot != null ? snapshot.size() : 0;
+        }
+
+        int count = 0;
+        //  With a snapshot on screen, the rows are collected to compare instead of shown
+        final ArrayList<ImageEntry> fresh = snapshot != null ? new ArrayList<ImageEntry>() : null;
+        try {
+            //  Look the columns up once, not once per row
+            final int idColumnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+            final int dataColumnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+            final int dateColumnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_ADDED);
+
+            int pageSize = FIRST_PAGE_SIZE;
+            ArrayList<ImageEntry> page = new ArrayList<>(pageSize);
+            while (cursor.moveToNext() && !isCancelled()) {
+                final ImageEntry entry = new ImageEntry(cursor.getLong(idColumnIndex),
+                        cursor.getString(dataColumnIndex), cursor.getLong(dateColumnIndex));
+                if (fresh != null) {
+                    fresh.add(entry);
+                    continue;
+                }
+                page.add(entry);
+                if (page.size() == pageSize) {
+                    count += page.size();
+                    publishProgress(page);
+                    pageSize = PAGE_SIZE;
+                    page = new ArrayList<>(pageSize);
+                }
+            }
+            if (!page.isEmpty()) {
+                count += page.size();
+                publishProgress(page);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (fresh != null && !isCancelled()) {
+            count = fresh.size();
+            mRemovedIds = IndexSnapshot.reconcile(snapshot, fresh, mInserted);
+        }
+        Log.v(TAG, "Queried " + count + " images in "
+                + (android.os.SystemClock.uptimeMillis() - startTime) + "ms");
+        return count;
+    }
+
+    /**
+     *  Delivers the images of the snapshot in pages, like the query's, and restores
+     *  their placeholder colors
+     *
+     *  @return                 every image of the snapshot, or null if there is no
+     *                          usable snapshot
+     */
+    private List<ImageEntry> readSnapshot() {
+        if (!mSnapshotFile.exists()) {
+            return null;
+        }
+        final ArrayList<ImageEntry> images = new ArrayList<>();
+        try {
+            final IndexSnapshot.Reader reader = new IndexSnapshot.Reader(mSnapshotFile);
+            try {
+                images.ensureCapacity(reader.getCount());
+                final PlaceholderColors colors = Utils.getPlaceholderColors();
+                int pageSize = FIRST_PAGE_SIZE;
+                ArrayList<ImageEntry> page = new ArrayList<>(pageSize);
+                ImageEntry entry;
+                while ((entry = reader.next()) != null) {
+                    //  Before the page is published, so the cells bind with their color
+                    colors.put(entry.id, reader.getColor());
+                    images.add(entry);
+                    page.add(entry);
+                    if (page.size() == pageSize) {
+                        publishProgress(page);
+                        pageSize = PAGE_SIZE;
+                        page = new ArrayList<>(pageSize);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    publishProgress(page);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the index snapshot", e);
+            //  The pages already shown are compared against the query like a whole snapshot
+        }
+        //  An empty snapshot has nothing to show early, the query pages in faster
+        return images.isEmpty() ? null : images;
+    }
+
+    @SafeVarargs
+    @Override
+    protected final void onProgressUpdate(List<ImageEntry>... pages) {
+        for (List<ImageEntry> page : pages) {
+            mCallback.onImagesLoaded(page);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        if (!mInserted.isEmpty() || mRemovedIds.length > 0) {
+            Log.v(TAG, "Snapshot was behind by " + mInserted.size() + " inserted, "
+                    + mRemovedIds.length + " removed");
+            mCallback.onImagesChanged(mInserted, mRemovedIds);
+        }
+        mCallback.onLoadFinished(count);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  Keeps the grid in step with the MediaStore without re-running the full query.
+ *
+ *  A {@link ContentObserver} on the images table schedules a sync, debounced so that
+ *  a burst of changes (a camera burst, a copy from a PC) costs a single sync. A sync
+ *  only fetches the rows whose _ID is greater than the largest one already known,
+ *  since MediaStore IDs only ever grow. Deletions are detected by comparing counts
+ *  first, and only when the counts disagree is the _ID column (and nothing else)
+ *  read and merged against the known IDs.
+ */
+public class MediaStoreSync extends ContentObserver {
+
+    private static final String TAG = "MediaStoreSync";
+
+    //  Wait for changes to settle before syncing
+    private static final long DEBOUNCE_MS = 500;
+
+    /**
+     *  Supplies the known state of the grid and applies changes to it, on the UI thread
+     */
+    public interface Listener {
+        //  Every MediaStore _ID currently shown, in any order
+        long[] getKnownIds();
+
+        //  New images (newest first) and the IDs of images that no longer exist
+        void onImagesChanged(List<ImageEntry> inserted, long[] removedIds);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private SyncTask mRunningSync;
+    private boolean mIsSyncPending;
+
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            requestSync();
+        }
+    };
+
+    /**
+     *  @param context          any context, only its application context is retained
+     *  @param handler          a handler on the UI thread
+     *  @param listener         receives the changes on the UI thread
+     */
+    public MediaStoreSync(Context context, Handler handler, Listener listener) {
+        super(handler);
+        mContext = context.getApplicationContext();
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     *  Starts observing the MediaStore, and syncs once to catch any change made
+     *  between the initial query and now
+     */
+    public void register() {
+        mContext.getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, this);
+        requestSync();
+    }
+
+    public void unregister() {
+        mContext.getContentResolver().unregisterContentObserver(this);
+        mHandler.removeCallbacks(mSyncRunnable);
+        if (mRunningSync != null) {
+            mRunningSync.cancel(false);
+            mRunningSync = null;
+        }
+        mIsSyncPending = false;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        mHandler.removeCallbacks(mSyncRunnable);
+        mHandler.postDelayed(mSyncRunnable, DEBOUNCE_MS);
+    }
+
+    /**
+     *  Runs a sync now, or straight after the one that is already running
+     */
+    private void requestSync() {
+        if (mRunningSync != null) {
+            mIsSyncPending = true;
+            return;
+        }
+        mRunningSync = new SyncTask(mListener.getKnownIds());
+        mRunningSync.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     *  Computes the difference between the known IDs and the MediaStore in the background
+     */
+    private class SyncTask extends AsyncTask<Void, Void, Boolean> {
+        private final long[] mKnownIds;
+        private final ArrayList<ImageEntry> mInserted = new ArrayList<>();
+        private long[] mRemovedIds = new long[0];
+
+        SyncTask(long[] knownIds) {
+            mKnownIds = knownIds;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            Arrays.sort(mKnownIds);
+            final long maxKnownId = mKnownIds.length > 0 ? mKnownIds[mKnownIds.length - 1] : -1;
+
+            //  Inserts: only rows newer than anything already shown
+            final Cursor inserted = Utils.queryImages(mContext,
+                    MediaStore.Images.Media._ID + " > ?", new String[] {Long.toString(maxKnownId)});
+            if (inserted == null) {
+                return false;
+            }
+            try {
+                final int idColumnIndex = inserted.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+                final int dataColumnIndex = inserted.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+                final int dateColumnIndex = inserted.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_ADDED);
+                while (inserted.moveToNext()) {
+                    mInserted.add(new ImageEntry(inserted.getLong(idColumnIndex),
+                            inserted.getString(dataColumnIndex), inserted.getLong(dateColumnIndex)));
+                }
+            } finally {
+                inserted.close();
+            }
+
+            //  Deletes: nothing to do if every known row is still counted
+            final Cursor ids = mContext.getContentResolver().query(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[] {MediaStore.Images.Media._ID},
+                    MediaStore.Images.Media._ID + " <= ?",
+                    new String[] {Long.toString(maxKnownId)},
+                    MediaStore.Images.Media._ID + " ASC");
+            if (ids == null) {
+                return false;
+            }
+            try {
+                if (ids.getCount() != mKnownIds.length) {
+                    mRemovedIds = findRemovedIds(ids);
+                }
+            } finally {
+                ids.close();
+            }
+            return true;
+        }
+
+        /**
+         *  Merges the sorted known IDs against the sorted IDs still in the MediaStore
+         */
+        private long[] findRemovedIds(Cursor ids) {
+            final long[] removed = new long[mKnownIds.length];
+            int removedCount = 0;
+            int known = 0;
+            while (ids.moveToNext() && known < mKnownIds.length) {
+                final long current = ids.getLong(0);
+                while (known < mKnownIds.length && mKnownIds[known] < current) {
+                    removed[removedCount++] = mKnownIds[known++];
+                }
+                if (known < mKnownIds.length && mKnownIds[known] == current) {
+                    known++;
+                }
+            }
+            while (known < mKnownIds.length) {
+                removed[removedCount++] = mKnownIds[known++];
+            }
+            return Arrays.copyOf(removed, removedCount);
+        }
+
+        @Override
+        protected void onPostExecute(Boolean isSynced) {
+            mRunningSync = null;
+            if (isSynced && (!mInserted.isEmpty() || mRemovedIds.length > 0)) {
+                Log.v(TAG, "Inserted " + mInserted.size() + ", removed " + mRemovedIds.length);
+                mListener.onImagesChanged(mInserted, mRemovedIds);
+            }
+            if (mIsSyncPending) {
+                mIsSyncPending = false;
+                requestSync();
+            }
+        }
+    }
+}
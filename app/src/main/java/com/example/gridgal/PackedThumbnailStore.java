@@ -0,0 +1,352 @@
+package com.example.gridgal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A disk store for thumbnails of one fixed size, kept as raw pixels so that a hit
+ *  is a memory copy instead of a JPEG decode.
+ *
+ *  Thumbnails live in fixed-size slots inside a few large pack files, each of which
+ *  is memory-mapped once. A slot starts with a small header holding a hash of its
+ *  key, followed by the pixels exactly as {@code Bitmap.copyPixelsToBuffer} writes
+ *  them. The key to slot index is kept in an access-ordered map, so the least
+ *  recently used slot is reused once the store is full, and it is persisted in an
+ *  append-only index file of "slot key" lines.
+ *
+ *  Pixels are only read and written through {@link PixelReader} and
+ *  {@link PixelWriter} callbacks while the store is locked, so a slot can never be
+ *  overwritten while it is being copied out.
+ */
+public class PackedThumbnailStore {
+
+    private static final String INDEX_FILE = "index";
+    private static final String PACK_FILE_PREFIX = "pack-";
+    private static final int SLOTS_PER_PACK = 256;
+    //  Hash of the key stored in front of the pixels, used to detect stale slots
+    private static final int SLOT_HEADER_BYTES = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final File indexFile;
+    private final int pixelBytes;
+    private final int slotBytes;
+    private final int maxSlots;
+
+    //  Slot index by key, in access order (least recently used first)
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<>(0, 0.75f, true);
+    private final ArrayList<MappedByteBuffer> packs = new ArrayList<>();
+    private final ArrayList<RandomAccessFile> packFiles = new ArrayList<>();
+    private int nextFreeSlot;
+    //  Slots below nextFreeSlot that were dropped and can be written again
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private Writer indexWriter;
+    private int indexLineCount;
+
+    /**
+     *  Copies a thumbnail's pixels out of its slot
+     */
+    public interface PixelReader {
+        void read(ByteBuffer pixels);
+    }
+
+    /**
+     *  Copies a thumbnail's pixels into its slot
+     */
+    public interface PixelWriter {
+        void write(ByteBuffer pixels);
+    }
+
+    private PackedThumbnailStore(File directory, int pixelBytes, int maxSlots) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.pixelBytes = pixelBytes;
+        this.slotBytes = SLOT_HEADER_BYTES + pixelBytes;
+        this.maxSlots = maxSlots;
+    }
+
+    /**
+     *  Opens the store in the given directory, replaying its index if there is one.
+     *  Does disk I/O, so must not be called on the UI thread.
+     *
+     *  @param directory        a directory owned exclusively by this store
+     *  @param pixelBytes       size of one thumbnail's pixels, width * height * bytes per pixel
+     *  @param maxBytes         the byte budget of the store
+     *  @return                 the opened store
+     */
+    public static PackedThumbnailStore open(File directory, int pixelBytes, long maxBytes)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create store directory " + directory);
+        }
+        final int maxSlots = (int) Math.max(1, maxBytes / (SLOT_HEADER_BYTES + pixelBytes));
+        PackedThumbnailStore store = new PackedThumbnailStore(directory, pixelBytes, maxSlots);
+        store.deleteUnusedPacks();
+        if (store.indexFile.exists()) {
+            store.readIndex();
+        }
+        store.rewriteIndex();
+        return store;
+    }
+
+    /**
+     *  Copies a stored thumbnail to the reader, and marks it as recently used
+     *
+     *  @param key              the thumbnail's key
+     *  @param reader           receives a buffer positioned at the pixels, which it
+     *                          must not write to
+     *  @return                 true on a hit, false if the key is not stored
+     */
+    public synchronized boolean read(String key, PixelReader reader) throws IOException {
+        final Integer slot = slots.get(key);
+        if (slot == null) {
+            return false;
+        }
+        final ByteBuffer buffer = slotBuffer(slot);
+        if (buffer.getLong() != keyHash(key)) {
+            //  The index was persisted but the pixels were not, drop the entry
+            slots.remove(key);
+            freeSlots.add(slot);
+            return false;
+        }
+        //  Not wrapped read-only: Bitmap.copyPixelsFromBuffer needs a plain direct buffer
+        reader.read(buffer.slice());
+        return true;
+    }
+
+    /**
+     *  Checks for a thumbnail without marking it as recently used
+     *
+     *  @param key              the thumbnail's key
+     *  @return                 true if the key has a slot
+     */
+    public synchronized boolean contains(String key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     *  Stores a thumbnail, reusing the least recently used slot once the store is full
+     *
+     *  @param key              the thumbnail's key
+     *  @param writer           fills a buffer positioned at the slot's pixels
+     */
+    public synchronized void write(String key, PixelWriter writer) throws IOException {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            slot = allocateSlot();
+        }
+        final ByteBuffer buffer = slotBuffer(slot);
+        //  Invalidate the slot first, so a half written slot never passes the key check
+        buffer.putLong(0, 0L);
+        buffer.position(SLOT_HEADER_BYTES);
+        writer.write(buffer.slice());
+        buffer.putLong(0, keyHash(key));
+
+        slots.put(key, slot);
+        appendIndex(slot, key);
+    }
+
+    /**
+     *  @return                 the number of stored thumbnails
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     *  @return                 the size in bytes of one thumbnail's pixels
+     */
+    public int getPixelBytes() {
+        return pixelBytes;
+    }
+
+    /**
+     *  Writes buffered index lines and mapped pixels to disk
+     */
+    public synchronized void flush() throws IOException {
+        if (indexWriter != null) {
+            indexWriter.flush();
+        }
+        for (MappedByteBuffer pack : packs) {
+            pack.force();
+        }
+    }
+
+    /**
+     *  Flushes and closes the store. The store must not be used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        closeQuietly(indexWriter);
+        indexWriter = null;
+        for (RandomAccessFile packFile : packFiles) {
+            closeQuietly(packFile);
+        }
+        packFiles.clear();
+        packs.clear();
+    }
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.poll();
+        }
+        if (nextFreeSlot < maxSlots) {
+            return nextFreeSlot++;
+        }
+        final Iterator<Map.Entry<String, Integer>> eldest = slots.entrySet().iterator();
+        final int slot = eldest.next().getValue();
+        eldest.remove();
+        return slot;
+    }
+
+    /**
+     *  Returns an independent view of a slot (header and pixels), mapping its pack
+     *  file if it has not been mapped yet
+     */
+    private ByteBuffer slotBuffer(int slot) throws IOException {
+        final int packIndex = slot / SLOTS_PER_PACK;
+        while (packs.size() <= packIndex) {
+            mapPack(packs.size());
+        }
+        final ByteBuffer buffer = packs.get(packIndex).duplicate();
+        final int offset = (slot % SLOTS_PER_PACK) * slotBytes;
+        buffer.limit(offset + slotBytes);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    /**
+     *  Maps a pack file, sized for only the slots of the budget that fall in it, so a
+     *  small budget of large thumbnails never grows a file past the budget
+     */
+    private void mapPack(int packIndex) throws IOException {
+        final long size = (long) slotBytes
+                * Math.min(SLOTS_PER_PACK, maxSlots - packIndex * SLOTS_PER_PACK);
+        final File file = new File(directory, PACK_FILE_PREFIX + packIndex);
+        final RandomAccessFile packFile = new RandomAccessFile(file, "rw");
+        try {
+            if (packFile.length() > size) {
+                //  Written with a bigger budget, give the rest of the disk back
+                packFile.setLength(size);
+            }
+            packs.add(packFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            closeQuietly(packFile);
+            throw e;
+        }
+        packFiles.add(packFile);
+    }
+
+    /**
+     *  Deletes the pack files past the ones the budget needs, left by a bigger budget
+     */
+    private void deleteUnusedPacks() {
+        int packIndex = (maxSlots + SLOTS_PER_PACK - 1) / SLOTS_PER_PACK;
+        File file;
+        while ((file = new File(directory, PACK_FILE_PREFIX + packIndex)).exists()) {
+            file.delete();
+            packIndex++;
+        }
+    }
+
+    private void readIndex() {
+        //  The key each slot was last written for, to spot slots reused for another key
+        final String[] slotKeys = new String[maxSlots];
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int space = line.indexOf(' ');
+                if (space <= 0) {
+                    //  A torn final line from a crash
+                    break;
+                }
+                final int slot = Integer.parseInt(line.substring(0, space));
+                if (slot < 0 || slot >= maxSlots) {
+                    //  Written with a bigger budget, that slot is gone now
+                    continue;
+                }
+                final String key = line.substring(space + 1);
+                if (slotKeys[slot] != null && !slotKeys[slot].equals(key)) {
+                    slots.remove(slotKeys[slot]);
+                }
+                slotKeys[slot] = key;
+                slots.put(key, slot);
+                nextFreeSlot = Math.max(nextFreeSlot, slot + 1);
+            }
+        } catch (IOException | NumberFormatException e) {
+            //  Keep whatever was read before the damaged part
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        closeQuietly(indexWriter);
+        final File temp = new File(directory, INDEX_FILE + ".tmp");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+        try {
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                writer.write(entry.getValue() + " " + entry.getKey() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(indexFile)) {
+            throw new IOException("Unable to replace index " + indexFile);
+        }
+        indexLineCount = slots.size();
+        indexWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), UTF_8));
+    }
+
+    private void appendIndex(int slot, String key) throws IOException {
+        indexWriter.write(slot + " " + key + '\n');
+        indexLineCount++;
+        if (indexLineCount > 2 * maxSlots) {
+            rewriteIndex();
+        }
+    }
+
+    /**
+     *  64-bit FNV-1a hash of a key, stored in each slot's header
+     */
+    private static long keyHash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        //  Zero marks an invalidated slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //  Nothing useful can be done
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.gridgal;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Counters and latency histograms for every stage of the thumbnail pipeline, so that
+ *  the time spent loading thumbnails can be broken down on a real device.
+ *
+ *  Stages are timed with {@link System#nanoTime()}: call {@link #start()} before the
+ *  stage and {@link #record(int, long)} after it. Neither allocates, and both do
+ *  nothing while metrics are disabled. The numbers can be read through the getters,
+ *  as a short summary for the debug overlay, or in full with
+ *  {@code adb shell dumpsys activity com.example.gridgal/.MainActivity}.
+ */
+public final class PipelineMetrics {
+
+    //  Reading the image size with inJustDecodeBounds
+    public static final int STAGE_BOUNDS = 0;
+    //  Decoding the original image with inSampleSize
+    public static final int STAGE_DECODE = 1;
+    //  Reading the EXIF orientation
+    public static final int STAGE_ORIENTATION = 2;
+    //  Rotating, scaling and cropping the sampled image into the thumbnail
+    public static final int STAGE_CROP = 3;
+    //  Loading a thumbnail that was found on disk
+    public static final int STAGE_DISK_READ = 4;
+    //  Saving a generated thumbnail to disk
+    public static final int STAGE_DISK_WRITE = 5;
+    //  Time a task spent in the decode queue before a thread picked it up
+    public static final int STAGE_QUEUE_WAIT = 6;
+    //  Time from starting a task to delivering its thumbnail
+    public static final int STAGE_TOTAL = 7;
+    static final int STAGE_COUNT = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "bounds", "decode", "orientation", "crop",
+            "disk read", "disk write", "queue wait", "total"
+    };
+
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+    static {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private static final AtomicLong memoryHits = new AtomicLong();
+    private static final AtomicLong memoryMisses = new AtomicLong();
+    private static final AtomicLong diskHits = new AtomicLong();
+    private static final AtomicLong diskMisses = new AtomicLong();
+    private static final AtomicLong cancellations = new AtomicLong();
+    //  Loads put off during a fling, which are issued again and so are not cancellations
+    private static final AtomicLong deferrals = new AtomicLong();
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    //  When the grid was created, and how long it took to show its first thumbnail
+    private static final AtomicLong launchNanos = new AtomicLong();
+    private static final AtomicLong firstThumbnailNanos = new AtomicLong();
+
+    private static volatile boolean isEnabled = true;
+
+    /**
+     *  A private constructor is created so no one should ever create a
+     *  {@link PipelineMetrics} object, it only holds the shared counters.
+     */
+    private PipelineMetrics() {
+    }
+
+    /**
+     *  Turns recording on or off. Counts already recorded are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     *  @return                 the start time to pass to {@link #record(int, long)}, or 0
+     *                          while metrics are disabled
+     */
+    public static long start() {
+        return isEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     *  Records the time since a stage started
+     *
+     *  @param stage            one of the STAGE_ constants
+     *  @param startNanos       the value {@link #start()} returned when the stage started
+     */
+    public static void record(int stage, long startNanos) {
+        if (isEnabled && startNanos != 0) {
+            histograms[stage].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public static void recordMemoryLookup(boolean isHit) {
+        if (isEnabled) {
+            (isHit ? memoryHits : memoryMisses).incrementAndGet();
+        }
+    }
+
+    public static void recordDiskLookup(boolean isHit) {
+        if (isEnabled) {
+            (isHit ? diskHits : diskMisses).incrementAndGet();
+        }
+    }
+
+    /**
+     *  Counts a load task that was started. Counted even while disabled, so that the
+     *  in-flight count stays balanced.
+     */
+    public static void taskStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     *  Counts a load task that delivered its thumbnail or was cancelled
+     */
+    public static void taskFinished(boolean isCancelled) {
+        inFlight.decrementAndGet();
+        if (isCancelled && isEnabled) {
+            cancellations.incrementAndGet();
+        }
+    }
+
+    /**
+     *  Counts a load task that gave up its thread because full decodes were paused.
+     *  Its load is issued again in a new task, so it is neither delivered nor cancelled.
+     */
+    public static void taskDeferred() {
+        inFlight.decrementAndGet();
+        if (isEnabled) {
+            deferrals.incrementAndGet();
+        }
+    }
+
+    /**
+     *  Starts the time-to-first-thumbnail clock, when the grid is created
+     */
+    public static void markLaunch() {
+        launchNanos.set(System.nanoTime());
+        firstThumbnailNanos.set(0);
+    }
+
+    /**
+     *  Stops the time-to-first-thumbnail clock if it is running, called whenever a
+     *  thumbnail is delivered to a cell
+     */
+    public static void thumbnailShown() {
+        final long launch = launchNanos.get();
+        if (launch != 0 && firstThumbnailNanos.get() == 0) {
+            firstThumbnailNanos.compareAndSet(0, Math.max(1, System.nanoTime() - launch));
+        }
+    }
+
+    /**
+     *  @return                 the time from the last {@link #markLaunch()} to the first
+     *                          thumbnail shown after it, or 0 if none has been shown yet
+     */
+    public static long getFirstThumbnailNanos() {
+        return firstThumbnailNanos.get();
+    }
+
+    /**
+     *  @param stage            one of the STAGE_ constants
+     */
+    public static LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     *  @return                 the share of bound cells served from the memory cache
+     */
+    public static float getMemoryHitRatio() {
+        return ratio(memoryHits.get(), memoryMisses.get());
+    }
+
+    /**
+     *  @return                 the share of loads that found their thumbnail on disk
+     */
+    public static float getDiskHitRatio() {
+        return ratio(diskHits.get(), diskMisses.get());
+    }
+
+    /**
+     *  @return                 the number of load tasks started and not yet finished
+     */
+    public static int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     *  @return                 the number of load tasks cancelled before delivering
+     */
+    public static long getCancelledCount() {
+        return cancellations.get();
+    }
+
+    /**
+     *  @return                 the number of load tasks put off while full decodes
+     *                          were paused
+     */
+    public static long getDeferredCount() {
+        return deferrals.get();
+    }
+
+    /**
+     *  Clears every counter and histogram except the in-flight count
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        memoryHits.set(0);
+        memoryMisses.set(0);
+        diskHits.set(0);
+        diskMisses.set(0);
+        cancellations.set(0);
+        deferrals.set(0);
+    }
+
+    /**
+     *  @return                 a few short lines for the debug overlay
+     */
+    public static String getSummary() {
+        return "memory " + percent(getMemoryHitRatio())
+                + "  disk " + percent(getDiskHitRatio())
+                + "  in flight " + getInFlightCount()
+                + "  cancelled " + getCancelledCount()
+                + "\nqueue p90 " + LatencyHistogram.formatMillis(
+                        histograms[STAGE_QUEUE_WAIT].getPercentileNanos(90))
+                + "  decode p90 " + LatencyHistogram.formatMillis(
+                        histograms[STAGE_DECODE].getPercentileNanos(90))
+                + "  disk p90 " + LatencyHistogram.formatMillis(
+                        histograms[STAGE_DISK_READ].getPercentileNanos(90))
+                + "\ntotal p50 " + LatencyHistogram.formatMillis(
+                        histograms[STAGE_TOTAL].getPercentileNanos(50))
+                + "  p90 " + LatencyHistogram.formatMillis(
+                        histograms[STAGE_TOTAL].getPercentileNanos(90))
+                + "  first " + LatencyHistogram.formatMillis(getFirstThumbnailNanos());
+    }
+
+    /**
+     *  Writes every counter and histogram, one per line
+     *
+     *  @param prefix           indentation to start each line with
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Thumbnail pipeline" + (isEnabled ? ":" : " (disabled):"));
+        final String indent = prefix + "  ";
+        writer.println(indent + "memory hits=" + memoryHits.get() + ", misses=" + memoryMisses.get()
+                + " (" + percent(getMemoryHitRatio()) + ")");
+        writer.println(indent + "disk hits=" + diskHits.get() + ", misses=" + diskMisses.get()
+                + " (" + percent(getDiskHitRatio()) + ")");
+        writer.println(indent + "in flight=" + getInFlightCount()
+                + ", cancelled=" + getCancelledCount()
+                + ", deferred=" + getDeferredCount());
+        writer.println(indent + "first thumbnail after launch="
+                + LatencyHistogram.formatMillis(getFirstThumbnailNanos()));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            writer.println(indent + STAGE_NAMES[stage] + ": " + histograms[stage].getStats());
+        }
+    }
+
+    private static float ratio(long hits, long misses) {
+        final long total = hits + misses;
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    private static String percent(float ratio) {
+        return Math.round(ratio * 100) + "%";
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.gridgal;
+
+import java.util.Arrays;
+
+/**
+ *  The average color of every image whose thumbnail has been made, by MediaStore _ID,
+ *  shown in a cell while its thumbnail loads. A fast scroll through images that are
+ *  not in memory then shows their colors instead of a wall of identical placeholders.
+ *
+ *  Colors are taken from a few pixels of a finished thumbnail, so they cost no extra
+ *  decode, and are saved with the {@link IndexSnapshot} so they are there from the
+ *  first frame of the next launch. The map is an open-addressing table of primitive
+ *  longs and ints, so a lookup on bind allocates nothing. It has no Android
+ *  dependencies, so it can be unit tested.
+ */
+public class PlaceholderColors {
+
+    //  Pixels sampled along each side of a thumbnail
+    static final int SAMPLES_PER_SIDE = 8;
+    //  Returned for images without a color, fully transparent so never a real color
+    public static final int NO_COLOR = 0;
+
+    //  Marks an empty slot, so it can not be used as a key
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] colors;
+    private int mask;
+    private int count;
+    //  Set when a color was added or changed since the last call to clearChanged()
+    private boolean isChanged;
+
+    public PlaceholderColors() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     *  @return                 the color of the image, or {@link #NO_COLOR}
+     */
+    public synchronized int get(long imageId) {
+        final int slot = find(imageId);
+        return keys[slot] == imageId ? colors[slot] : NO_COLOR;
+    }
+
+    /**
+     *  @param imageId          MediaStore _ID of the image
+     *  @param color            an opaque ARGB color, or {@link #NO_COLOR} to do nothing
+     */
+    public synchronized void put(long imageId, int color) {
+        if (color == NO_COLOR || imageId == EMPTY) {
+            return;
+        }
+        int slot = find(imageId);
+        if (keys[slot] == imageId) {
+            if (colors[slot] != color) {
+                colors[slot] = color;
+                isChanged = true;
+            }
+            return;
+        }
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+            slot = find(imageId);
+        }
+        keys[slot] = imageId;
+        colors[slot] = color;
+        count++;
+        isChanged = true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     *  @return                 true if a color was added or changed since the last
+     *                          {@link #clearChanged()}, so the saved copy is behind
+     */
+    public synchronized boolean isChanged() {
+        return isChanged;
+    }
+
+    public synchronized void clearChanged() {
+        isChanged = false;
+    }
+
+    /**
+     *  Averages sampled pixels into one opaque color
+     *
+     *  @param pixels           ARGB pixels sampled across a thumbnail
+     *  @param length           the number of pixels to average, from the start of the array
+     *  @return                 the average color, or {@link #NO_COLOR} if length is 0
+     */
+    public static int averageColor(int[] pixels, int length) {
+        if (length == 0) {
+            return NO_COLOR;
+        }
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int i = 0; i < length; i++) {
+            red += (pixels[i] >> 16) & 0xff;
+            green += (pixels[i] >> 8) & 0xff;
+            blue += pixels[i] & 0xff;
+        }
+        return 0xff000000 | (int) (red / length) << 16 | (int) (green / length) << 8
+                | (int) (blue / length);
+    }
+
+    /**
+     *  @return                 the slot holding the key, or the empty slot it would go in
+     */
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        colors = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldColors = colors;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                colors[slot] = oldColors[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        //  Spread the bits, consecutive _IDs would otherwise fill runs of adjacent slots
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.gridgal;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ *  A {@link BitmapDrawable} that keeps track of whether it is being displayed or
+ *  cached. When it is neither, its Bitmap is handed back to the {@link BitmapPool}
+ *  so that a later decode can reuse the pixel buffer.
+ *
+ *  Reference:
+ *  https://developer.android.com/topic/performance/graphics/manage-memory.html
+ */
+public class RecyclingBitmapDrawable extends BitmapDrawable {
+
+    private final BitmapPool bitmapPool;
+
+    private int cacheRefCount = 0;
+    private int displayRefCount = 0;
+    private boolean hasBeenDisplayed;
+    private boolean isReturnedToPool;
+
+    public RecyclingBitmapDrawable(Resources res, Bitmap bitmap, BitmapPool bitmapPool) {
+        super(res, bitmap);
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     *  Notifies the drawable that it has been attached to, or detached from, a view
+     *
+     *  @param isDisplayed      whether the drawable is now being displayed
+     */
+    public void setIsDisplayed(boolean isDisplayed) {
+        synchronized (this) {
+            if (isDisplayed) {
+                displayRefCount++;
+                hasBeenDisplayed = true;
+            } else {
+                displayRefCount--;
+            }
+        }
+        checkState();
+    }
+
+    /**
+     *  Notifies the drawable that it has been added to, or removed from, a cache
+     *
+     *  @param isCached         whether the drawable is now held by a cache
+     */
+    public void setIsCached(boolean isCached) {
+        synchronized (this) {
+            if (isCached) {
+                cacheRefCount++;
+            } else {
+                cacheRefCount--;
+            }
+        }
+        checkState();
+    }
+
+    /**
+     *  Hands the Bitmap back to the pool once nothing displays or caches it any more
+     */
+    private synchronized void checkState() {
+        if (cacheRefCount <= 0 && displayRefCount <= 0 && hasBeenDisplayed
+                && !isReturnedToPool && hasValidBitmap()) {
+            isReturnedToPool = true;
+            bitmapPool.put(getBitmap());
+        }
+    }
+
+    private synchronized boolean hasValidBitmap() {
+        final Bitmap bitmap = getBitmap();
+        return bitmap != null && !bitmap.isRecycled();
+    }
+}
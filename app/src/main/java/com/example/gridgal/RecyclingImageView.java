@@ -0,0 +1,55 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.support.v7.widget.AppCompatImageView;
+import android.util.AttributeSet;
+
+/**
+ *  An {@link android.widget.ImageView} that tells any {@link RecyclingBitmapDrawable}
+ *  it shows when it starts and stops displaying it, so that the drawable knows when
+ *  its Bitmap can go back to the {@link BitmapPool}.
+ */
+public class RecyclingImageView extends AppCompatImageView {
+
+    public RecyclingImageView(Context context) {
+        super(context);
+    }
+
+    public RecyclingImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public RecyclingImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        //  Release the drawable so that its Bitmap can be reused
+        setImageDrawable(null);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        final Drawable previousDrawable = getDrawable();
+        super.setImageDrawable(drawable);
+
+        //  Notify the new drawable first, in case it is the same as the previous one
+        notifyDrawable(drawable, true);
+        notifyDrawable(previousDrawable, false);
+    }
+
+    private static void notifyDrawable(Drawable drawable, final boolean isDisplayed) {
+        if (drawable instanceof RecyclingBitmapDrawable) {
+            ((RecyclingBitmapDrawable) drawable).setIsDisplayed(isDisplayed);
+        } else if (drawable instanceof LayerDrawable) {
+            final LayerDrawable layerDrawable = (LayerDrawable) drawable;
+            for (int i = 0, z = layerDrawable.getNumberOfLayers(); i < z; i++) {
+                notifyDrawable(layerDrawable.getDrawable(i), isDisplayed);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+/**
+ *  Loads thumbnails into the memory cache a few rows ahead of the scroll, so that a
+ *  newly visible row is usually a cache hit instead of a placeholder.
+ *
+ *  The prefetcher follows the direction of travel. While the grid is flinging faster
+ *  than the fling threshold it prefetches nothing and pauses full decodes, since those
+ *  cells are gone before their decode finishes; both resume as the fling slows down
+ *  or settles, and the cells still on screen then get their full decodes.
+ *
+ *  The hit rate counts prefetched thumbnails that were in the memory cache by the
+ *  time they scrolled into view.
+ */
+public class ScrollPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = "ScrollPrefetcher";
+
+    private static final int DEFAULT_LOOKAHEAD_ROWS = 2;
+    //  Remember at most this many prefetched keys, the oldest were scrolled away from
+    private static final int MAX_TRACKED_KEYS = 256;
+
+    private final Context mContext;
+    private final GridLayoutManager mLayoutManager;
+    private final ImageAdapter mAdapter;
+    //  Scroll distance per frame above which a fling is too fast to decode for
+    private final int mFlingThreshold;
+    private int mLookaheadRows = DEFAULT_LOOKAHEAD_ROWS;
+
+    private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+    private boolean mIsFastFling;
+    //  1 when scrolling towards the end of the grid, -1 towards the start
+    private int mDirection = 1;
+    private int mFirstVisible = RecyclerView.NO_POSITION;
+    private int mLastVisible = RecyclerView.NO_POSITION;
+    private int mPrefetchedFrom = RecyclerView.NO_POSITION;
+    private int mPrefetchedTo = RecyclerView.NO_POSITION;
+
+    //  Keys prefetched but not yet seen on screen, the values are unused
+    private final LongLruCache<Boolean> mPrefetchedKeys = new LongLruCache<>(MAX_TRACKED_KEYS);
+    private int mPrefetchCount;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     *  @param context          any context, only its application context is retained
+     *  @param layoutManager    the layout manager of the grid
+     *  @param adapter          the adapter of the grid
+     *  @param flingThreshold   scroll distance in pixels per frame above which full
+     *                          decodes are paused
+     */
+    public ScrollPrefetcher(Context context, GridLayoutManager layoutManager,
+                            ImageAdapter adapter, int flingThreshold) {
+        mContext = context.getApplicationContext();
+        mLayoutManager = layoutManager;
+        mAdapter = adapter;
+        mFlingThreshold = flingThreshold;
+    }
+
+    /**
+     *  @param rows             number of rows to prefetch ahead of the visible ones,
+     *                          0 to turn prefetching off
+     */
+    public void setLookaheadRows(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Lookahead must not be negative, was " + rows);
+        }
+        mLookaheadRows = rows;
+        mPrefetchedFrom = mPrefetchedTo = RecyclerView.NO_POSITION;
+    }
+
+    public int getLookaheadRows() {
+        return mLookaheadRows;
+    }
+
+    /**
+     *  @return                 the share of prefetched thumbnails that were cached when
+     *                          they came into view, or 0 before any came into view
+     */
+    public float getHitRate() {
+        final int seen = mHitCount + mMissCount;
+        return seen == 0 ? 0f : (float) mHitCount / seen;
+    }
+
+    /**
+     *  @return                 the number of thumbnail loads started by prefetching
+     */
+    public int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        mScrollState = newState;
+        if (newState != RecyclerView.SCROLL_STATE_SETTLING) {
+            //  Dragging or settled, the cells on screen are the ones to decode
+            setFastFling(false);
+        }
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            prefetchAhead();
+            Log.d(TAG, "Prefetched " + mPrefetchCount + ", hit rate " + getHitRate());
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy != 0) {
+            mDirection = dy > 0 ? 1 : -1;
+        }
+        setFastFling(mScrollState == RecyclerView.SCROLL_STATE_SETTLING
+                && Math.abs(dy) > mFlingThreshold);
+        updateVisibleRange();
+        if (!mIsFastFling) {
+            prefetchAhead();
+        }
+    }
+
+    private void setFastFling(boolean isFastFling) {
+        if (mIsFastFling != isFastFling) {
+            mIsFastFling = isFastFling;
+            Utils.setFullDecodesPaused(isFastFling);
+        }
+    }
+
+    /**
+     *  Scores the prefetched thumbnails that just came into view
+     */
+    private void updateVisibleRange() {
+        final int first = mLayoutManager.findFirstVisibleItemPosition();
+        final int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        if (mPrefetchedKeys.entryCount() > 0) {
+            for (int position = first; position <= last; position++) {
+                if (position < mFirstVisible || position > mLastVisible) {
+                    scoreVisible(position);
+                }
+            }
+        }
+        mFirstVisible = first;
+        mLastVisible = last;
+    }
+
+    private void scoreVisible(int position) {
+        final long key = mAdapter.getImage(position).getCacheKey(
+                mAdapter.getThumbnailSize(), mAdapter.getThumbnailSize());
+        if (mPrefetchedKeys.remove(key) != null) {
+            if (Utils.isInMemoryCache(mContext, key)) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+    }
+
+    /**
+     *  Starts loads for the rows just past the visible ones, in the direction of travel
+     */
+    private void prefetchAhead() {
+        if (mLookaheadRows == 0 || mFirstVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+        //  The queue is LIFO, prefetching now would jump ahead of the visible cells
+        if (!DecodeScheduler.getExecutor().getQueue().isEmpty()) {
+            return;
+        }
+        final int count = mLookaheadRows * mLayoutManager.getSpanCount();
+        final int from = mDirection > 0 ? mLastVisible + 1 : Math.max(0, mFirstVisible - count);
+        final int to = mDirection > 0
+                ? Math.min(mAdapter.getItemCount(), mLastVisible + 1 + count) : mFirstVisible;
+        if (from == mPrefetchedFrom && to == mPrefetchedTo) {
+            return;
+        }
+        mPrefetchedFrom = from;
+        mPrefetchedTo = to;
+
+        //  Nearest row first; the decode queue is LIFO, so queue the nearest row last
+        for (int i = to - from - 1; i >= 0; i--) {
+            final int position = mDirection > 0 ? from + i : to - 1 - i;
+            final ImageEntry image = mAdapter.getImage(position);
+            final int size = mAdapter.getThumbnailSize();
+            if (Utils.prefetchBitmap(image, size, size, mContext)) {
+                mPrefetchCount++;
+                mPrefetchedKeys.put(image.getCacheKey(size, size), Boolean.TRUE);
+            }
+        }
+    }
+}
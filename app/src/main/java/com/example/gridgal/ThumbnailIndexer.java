@@ -0,0 +1,208 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ *  Generates disk thumbnails for the whole MediaStore library in the background, so
+ *  that a first scroll through a large library mostly hits the disk cache instead of
+ *  decoding full-size images on the critical path.
+ *
+ *  Images are visited newest first, the same order as the grid. The indexer runs on a
+ *  single lowest-priority thread, sleeps between images, steps aside while the grid's
+ *  own decodes are running, and stops when the battery is low or hot. Its position is
+ *  saved so that the next run resumes where the last one stopped.
+ */
+public class ThumbnailIndexer {
+
+    private static final String TAG = "ThumbnailIndexer";
+
+    private static final String PREFS_NAME = "thumbnail_indexer";
+    private static final String PREF_RESUME_PATH = "resume_path";
+
+    //  Pause after each generated thumbnail, so the indexer never saturates a core
+    private static final long THROTTLE_MS = 40;
+    //  How long to wait while the grid's own decodes are running
+    private static final long FOREGROUND_BACKOFF_MS = 250;
+    //  How often (in images) the battery is checked and the position saved
+    private static final int CHECK_INTERVAL = 16;
+
+    private static final int MIN_BATTERY_PERCENT = 20;
+    //  Battery temperature is reported in tenths of a degree Celsius
+    private static final int MAX_BATTERY_TEMPERATURE = 400;
+
+    private final Context mContext;
+    private final int mWidth;
+    private final int mHeight;
+    //  The indexing thread, kept until it has exited, even after it was asked to stop
+    private Thread mThread;
+    private volatile boolean mIsStopped;
+    //  Set when start() is called while a stopped thread is still finishing
+    private boolean mIsRestartPending;
+
+    /**
+     *  @param context          any context, only its application context is retained
+     *  @param width            width of the thumbnails to generate
+     *  @param height           height of the thumbnails to generate
+     */
+    public ThumbnailIndexer(Context context, int width, int height) {
+        mContext = context.getApplicationContext();
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     *  Starts (or resumes) indexing on a background thread, unless it is already running.
+     *  If a stopped thread is still finishing its image, the new run starts once it has
+     *  exited, so two threads never index at the same time.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            mIsRestartPending = mIsStopped;
+            return;
+        }
+        mIsStopped = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                try {
+                    runIndexing();
+                } finally {
+                    onThreadExit();
+                }
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     *  Asks the indexer to stop after the image it is working on. Progress is kept.
+     */
+    public synchronized void stop() {
+        mIsStopped = true;
+        mIsRestartPending = false;
+        if (mThread != null) {
+            //  Cuts short the throttle and back-off sleeps
+            mThread.interrupt();
+        }
+    }
+
+    private synchronized void onThreadExit() {
+        mThread = null;
+        if (mIsRestartPending) {
+            mIsRestartPending = false;
+            start();
+        }
+    }
+
+    private void runIndexing() {
+        final String[] paths = Utils.getImagePaths(mContext);
+        final SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final int start = findResumePosition(paths, prefs.getString(PREF_RESUME_PATH, null));
+        final BitmapPool pool = Utils.getBitmapPool(mContext);
+        final CancellationSignal signal = new CancellationSignal();
+        Log.i(TAG, "Indexing " + paths.length + " images from position " + start);
+
+        int generated = 0;
+        //  Start from the saved position and wrap around, which also covers images
+        //  added at the top of the list since the last run
+        for (int i = 0; i < paths.length && !mIsStopped; i++) {
+            final String path = paths[(start + i) % paths.length];
+
+            if (i % CHECK_INTERVAL == 0) {
+                prefs.edit().putString(PREF_RESUME_PATH, path).apply();
+                if (!isDeviceReady()) {
+                    Log.i(TAG, "Stopping, battery is low or hot");
+                    return;
+                }
+            }
+
+            try {
+                waitForForegroundDecodes();
+                final String diskKey = Utils.getDiskKey(path, mWidth, mHeight);
+                if (Utils.isThumbnailOnDisk(mContext, diskKey, mWidth, mHeight)) {
+                    continue;
+                }
+                //  Not measured, the throttled background decodes would skew the grid's latencies
+                final Bitmap thumbnail = Utils.decodeIncomingImage(path, mWidth, mHeight, pool,
+                        signal, false);
+                if (thumbnail != null) {
+                    Utils.saveThumbnailToDisk(mContext, diskKey, mWidth, mHeight, thumbnail, false);
+                    pool.put(thumbnail);
+                    generated++;
+                }
+                Thread.sleep(THROTTLE_MS);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to index " + path, e);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        if (!mIsStopped) {
+            //  A full pass is done, the next run only has to look at new images
+            prefs.edit().remove(PREF_RESUME_PATH).apply();
+        }
+        Log.i(TAG, "Generated " + generated + " thumbnails");
+    }
+
+    private static int findResumePosition(String[] paths, String resumePath) {
+        if (resumePath != null) {
+            for (int i = 0; i < paths.length; i++) {
+                if (resumePath.equals(paths[i])) {
+                    return i;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     *  Waits while the grid is decoding thumbnails the user is looking at
+     */
+    private void waitForForegroundDecodes() throws InterruptedException {
+        while (!mIsStopped && DecodeScheduler.getExecutor().getActiveCount() > 0) {
+            Thread.sleep(FOREGROUND_BACKOFF_MS);
+        }
+    }
+
+    /**
+     *  @return                 false if the battery is low and not charging, hot, or
+     *                          the device is in battery saver mode
+     */
+    private boolean isDeviceReady() {
+        final Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            final boolean isPlugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            final int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            if (!isPlugged && level >= 0 && scale > 0 && level * 100 / scale < MIN_BATTERY_PERCENT) {
+                return false;
+            }
+            if (temperature >= MAX_BATTERY_TEMPERATURE) {
+                return false;
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            final PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (powerManager.isPowerSaveMode()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.gridgal;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ *  In-memory tier of the thumbnail caches.
+ *
+ *  The cache is bounded by the number of bytes held by its Bitmaps rather than by
+ *  the number of entries, and its budget is a fraction of the per-app heap limit
+ *  reported by {@link ActivityManager#getMemoryClass()}. It registers itself for
+ *  {@link ComponentCallbacks2} so that it gives memory back when the system asks.
+ *  Entries are {@link RecyclingBitmapDrawable}s so that evicted Bitmaps can be reused,
+ *  keyed by {@link ImageEntry#cacheKeyFor(long, int, int)}.
+ */
+public class ThumbnailMemoryCache extends LongLruCache<RecyclingBitmapDrawable>
+        implements ComponentCallbacks2 {
+
+    private static final String TAG = "ThumbnailMemoryCache";
+
+    //  Share of the app's memory class given to thumbnails (1/8 of the heap)
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private final int maxBytes;
+
+    private ThumbnailMemoryCache(int maxBytes) {
+        super(maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     *  Creates a cache sized from the device's memory class and registers it for
+     *  trim-memory callbacks on the application context
+     *
+     *  @param context          any context, only its application context is retained
+     *  @return                 a new byte-budgeted cache
+     */
+    public static ThumbnailMemoryCache create(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final ActivityManager activityManager =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+        final int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+
+        ThumbnailMemoryCache cache = new ThumbnailMemoryCache(memoryClassBytes / MEMORY_CLASS_DIVISOR);
+        appContext.registerComponentCallbacks(cache);
+        Log.i(TAG, "Created memory cache with a budget of " + cache.maxBytes + " bytes");
+        return cache;
+    }
+
+    /**
+     *  Measures entries in bytes so that the cache budget tracks real heap usage
+     */
+    @Override
+    protected int sizeOf(long key, RecyclingBitmapDrawable drawable) {
+        return getBitmapBytes(drawable.getBitmap());
+    }
+
+    /**
+     *  Lets a removed drawable know it is no longer cached, so that its Bitmap can go
+     *  back to the {@link BitmapPool} once it is not displayed either
+     */
+    @Override
+    protected void entryRemoved(boolean evicted, long key, RecyclingBitmapDrawable oldValue,
+                                RecyclingBitmapDrawable newValue) {
+        oldValue.setIsCached(false);
+    }
+
+    /**
+     *  Atomically caches a drawable unless the key already has one, so that two workers
+     *  finishing the same thumbnail cannot both insert it
+     *
+     *  @param key              the cache key
+     *  @param drawable         the drawable to cache
+     *  @return                 the drawable now cached for the key
+     */
+    public synchronized RecyclingBitmapDrawable putIfAbsent(long key,
+                                                            RecyclingBitmapDrawable drawable) {
+        //  LongLruCache locks on itself, so holding its monitor makes get-then-put atomic
+        final RecyclingBitmapDrawable existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        drawable.setIsCached(true);
+        put(key, drawable);
+        return drawable;
+    }
+
+    /**
+     *  Returns the number of bytes backing a Bitmap, including any slack left over
+     *  from a larger Bitmap it may have been decoded into
+     */
+    static int getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     *  Shrinks the cache in proportion to how hard the system is asking for memory
+     *
+     *  @param level            one of the {@link ComponentCallbacks2} TRIM_MEMORY levels
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            //  The process is near the top of the kill list, keep nothing
+            evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            //  Covers TRIM_MEMORY_UI_HIDDEN too: keep a quarter for when the user comes back
+            trimToSize(maxBytes / 4);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(maxBytes * 3 / 4);
+        }
+        Log.i(TAG, "onTrimMemory(" + level + ") " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //  Thumbnails do not depend on the configuration
+    }
+
+    /**
+     *  @return                 the byte budget of the cache when it is not trimmed
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     *  @return                 a one-line summary of the hit, miss and eviction counters
+     */
+    public String getStats() {
+        return "size=" + size() + "/" + maxBytes + " bytes"
+                + ", hits=" + hitCount()
+                + ", misses=" + missCount()
+                + ", evictions=" + evictionCount();
+    }
+}
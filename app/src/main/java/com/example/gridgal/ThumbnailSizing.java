@@ -0,0 +1,103 @@
+package com.example.gridgal;
+
+/**
+ *  The arithmetic that decides what part of an image is decoded, and at what size, to
+ *  make a thumbnail. It has no Android dependencies, so it can be unit tested and
+ *  benchmarked on a plain JVM.
+ */
+public final class ThumbnailSizing {
+
+    //  Thumbnail sizes in pixels. Sizes are rounded up to one of these, so that small
+    //  layout differences keep hitting the same cache entries.
+    static final int[] SIZE_BUCKETS = {64, 96, 128, 160, 192, 256, 320, 384, 512};
+
+    /**
+     *  A private constructor is created so no one should ever create a
+     *  {@link ThumbnailSizing} object, it only holds static helpers.
+     */
+    private ThumbnailSizing() {
+    }
+
+    /**
+     *  Rounds a thumbnail size up to the nearest size bucket
+     *
+     *  @param sizePx           the size the thumbnail is displayed at, in pixels
+     *  @return                 the size to decode and cache the thumbnail at
+     */
+    public static int getSizeBucket(int sizePx) {
+        for (int bucket : SIZE_BUCKETS) {
+            if (bucket >= sizePx) {
+                return bucket;
+            }
+        }
+        return SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+    }
+
+    /**
+     *  Calculates the sample size of the image to scale it down to the given size in
+     *  the grid
+     *
+     *  @param rawWidth         raw width of the image a.k.a outWidth
+     *  @param rawHeight        raw height of the image a.k.a outHeight
+     *  @param rWidth           required width of Bitmap to be displayed
+     *  @param rHeight          required height of Bitmap to be displayed
+     *
+     *  @return                 Calculated Sample Size value based on target width and height
+     */
+    public static int calculateInSampleSize(int rawWidth, int rawHeight, int rWidth, int rHeight) {
+        int inSampleSize = 1;
+
+        if (rawHeight > rHeight || rawWidth > rWidth) {
+
+            final int halfHeight = rawHeight / 2;
+            final int halfWidth = rawWidth / 2;
+
+            //  Calculates the largest inSampleSize value that is a power of 2 and
+            // keeps both height and width larger than the requested height and width.
+            while ((halfHeight / inSampleSize) > rHeight
+                    && (halfWidth / inSampleSize) > rWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     *  Finds the center-crop area of an image: the largest centered rectangle with the
+     *  aspect ratio of the thumbnail. Only these pixels end up in the thumbnail, so only
+     *  they need decoding.
+     *
+     *  The rectangle is in stored pixels, before any EXIF rotation. A center crop is
+     *  symmetric, so a quarter turn only swaps the required dimensions; pass them
+     *  swapped for images stored on their side.
+     *
+     *  @param rawWidth         width of the stored image
+     *  @param rawHeight        height of the stored image
+     *  @param rWidth           required width, in the orientation of the stored pixels
+     *  @param rHeight          required height, in the orientation of the stored pixels
+     *  @param sampleSize       the inSampleSize the area will be decoded with. The area
+     *                          is shrunk to whole samples, so it decodes to an exact size.
+     *  @return                 the area as {left, top, right, bottom}
+     */
+    public static int[] getCenterCrop(int rawWidth, int rawHeight, int rWidth, int rHeight,
+                                      int sampleSize) {
+        int cropWidth = rawWidth;
+        int cropHeight = rawHeight;
+        if ((long) rawWidth * rHeight > (long) rawHeight * rWidth) {
+            //  Wider than the thumbnail, crop the sides
+            cropWidth = (int) ((long) rawHeight * rWidth / rHeight);
+        } else {
+            //  Taller than the thumbnail, crop the top and bottom
+            cropHeight = (int) ((long) rawWidth * rHeight / rWidth);
+        }
+        cropWidth = Math.max(1, cropWidth / sampleSize) * sampleSize;
+        cropHeight = Math.max(1, cropHeight / sampleSize) * sampleSize;
+        cropWidth = Math.min(cropWidth, rawWidth);
+        cropHeight = Math.min(cropHeight, rawHeight);
+
+        final int left = (rawWidth - cropWidth) / 2;
+        final int top = (rawHeight - cropHeight) / 2;
+        return new int[] {left, top, left + cropWidth, top + cropHeight};
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.gridgal;
+
+/**
+ *  The tile arithmetic of {@link TiledImageView}. It has no Android dependencies, so
+ *  it can be unit tested on a plain JVM.
+ *
+ *  An image is shown at one sample level at a time. At sample size s, the image is cut
+ *  into tiles of {@link #TILE_SIZE} * s stored pixels, each of which decodes to at
+ *  most TILE_SIZE x TILE_SIZE pixels. All coordinates are in stored pixels, before any
+ *  EXIF rotation.
+ */
+public final class TileLayout {
+
+    //  Side of a decoded tile in pixels
+    public static final int TILE_SIZE = 256;
+
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    /**
+     *  A private constructor is created so no one should ever create a
+     *  {@link TileLayout} object, it only holds static helpers.
+     */
+    private TileLayout() {
+    }
+
+    /**
+     *  Picks the sample level closest to the zoom. Each decoded pixel then covers
+     *  between 0.7 and 1.4 screen pixels, so the visible tiles hold at most about twice
+     *  the pixels of the screen, however far the image is zoomed.
+     *
+     *  @param scale            screen pixels per stored pixel
+     *  @return                 the largest power of two sample size that magnifies decoded
+     *                          pixels by no more than the square root of two
+     */
+    public static int getSampleSizeForScale(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= SQRT_2) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     *  @param maxSide          the longest side the decoded image may have
+     *  @return                 the smallest power of two sample size that decodes the
+     *                          whole image within maxSide x maxSide
+     */
+    public static int getBaseSampleSize(int imageWidth, int imageHeight, int maxSide) {
+        int sampleSize = 1;
+        while ((imageWidth + sampleSize - 1) / sampleSize > maxSide
+                || (imageHeight + sampleSize - 1) / sampleSize > maxSide) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     *  @param coordinate       a stored pixel coordinate along one side
+     *  @return                 the column or row of the tile holding the coordinate
+     */
+    public static int getTileIndex(float coordinate, int sampleSize) {
+        return (int) Math.floor(coordinate / (TILE_SIZE * sampleSize));
+    }
+
+    /**
+     *  @param imageSide        the width or height of the image
+     *  @return                 the number of tile columns or rows covering that side
+     */
+    public static int getTileCount(int imageSide, int sampleSize) {
+        final int span = TILE_SIZE * sampleSize;
+        return (imageSide + span - 1) / span;
+    }
+
+    /**
+     *  @return                 the stored pixels a tile covers, as {left, top, right,
+     *                          bottom}, clipped to the image
+     */
+    public static int[] getTileBounds(int sampleSize, int column, int row,
+                                      int imageWidth, int imageHeight) {
+        final int span = TILE_SIZE * sampleSize;
+        return new int[] {
+                column * span,
+                row * span,
+                Math.min(imageWidth, (column + 1) * span),
+                Math.min(imageHeight, (row + 1) * span)
+        };
+    }
+
+    /**
+     *  Packs a tile into a key for a {@link LongLruCache}
+     *
+     *  @param sampleSize       a power of two below 2^15
+     *  @param column           below 2^24
+     *  @param row              below 2^24
+     */
+    public static long getTileKey(int sampleSize, int column, int row) {
+        return ((long) sampleSize << 48) | ((long) column << 24) | row;
+    }
+}
@@ -0,0 +1,565 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.AsyncTask;
+import android.support.v4.util.LongSparseArray;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.IOException;
+
+/**
+ *  A zoomable view of one image whose memory use stays flat whatever the size of the
+ *  image, so that a 48MP or 100MP photo can be viewed without running out of memory.
+ *
+ *  The whole image is drawn from a base layer, decoded with a sample size that fits
+ *  it within the screen. Once the user zooms in past the detail of the base layer,
+ *  the visible part of the image is decoded in tiles at the sample level of the
+ *  current zoom with {@link BitmapRegionDecoder}, drawn over the base layer as they
+ *  arrive. Tiles are kept in a cache of a few screens of pixels, and tiles that leave
+ *  the screen while they are still waiting or decoding are cancelled, so panning never
+ *  queues up work for parts of the image the user has moved away from.
+ *
+ *  Decodes run on the viewer's own {@link DecodeScheduler#getViewerExecutor()}, so they
+ *  neither wait behind nor push out the grid's decodes. The base layer and the tiles
+ *  are decoded into Bitmaps from the {@link BitmapPool}, and tiles evicted from the
+ *  cache go back to it, so panning reuses memory instead of allocating it.
+ *
+ *  Until the base layer is decoded, the view shows the grid's thumbnail of the image
+ *  from the memory cache, where the thumbnail's center crop sits once the image fits
+ *  the view.
+ *
+ *  Pinch to zoom, drag to pan, and double tap to switch between fitting the screen
+ *  and a closer look.
+ */
+public class TiledImageView extends View {
+
+    private static final String TAG = "TiledImageView";
+
+    //  Screens worth of pixels the tile cache may hold
+    private static final int TILE_CACHE_SCREENS = 4;
+    //  Largest zoom, in screen pixels per stored pixel
+    private static final float MAX_SCALE = 2f;
+
+    private final BitmapPool mBitmapPool;
+    private final LongLruCache<Bitmap> mTileCache;
+    //  Tiles being decoded, by tile key. Only accessed on the UI thread.
+    private final LongSparseArray<TileTask> mPendingTiles = new LongSparseArray<>();
+    //  Longest side of the base layer
+    private final int mMaxBaseSide;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //  Maps stored image pixels to view pixels
+    private final Matrix mMatrix = new Matrix();
+    private final Matrix mInverseMatrix = new Matrix();
+    private final RectF mVisibleRect = new RectF();
+    private final Rect mDrawRect = new Rect();
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    private LoadTask mLoadTask;
+    //  The grid's thumbnail, held displayed until the base layer replaces it
+    private RecyclingBitmapDrawable mThumbnail;
+    //  Side of the thumbnail on screen, or 0 until the size of the image is known
+    private float mThumbnailSide;
+    private BitmapRegionDecoder mDecoder;
+    private Bitmap mBaseLayer;
+    private int mBaseSampleSize;
+    //  Size of the stored pixels, and the clockwise EXIF rotation to show them upright
+    private int mImageWidth;
+    private int mImageHeight;
+    private int mRotation;
+
+    //  Screen pixels per stored pixel
+    private float mScale;
+    //  The point of the upright image shown at the center of the view
+    private float mCenterX;
+    private float mCenterY;
+
+    //  The visible tiles, or 0 while the base layer shows enough detail
+    private int mTileSampleSize;
+    private int mFirstColumn;
+    private int mLastColumn;
+    private int mFirstRow;
+    private int mLastRow;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mBitmapPool = Utils.getBitmapPool(context);
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mMaxBaseSide = Math.max(metrics.widthPixels, metrics.heightPixels);
+        final long screenBytes = (long) metrics.widthPixels * metrics.heightPixels
+                * BitmapPool.getBytesPerPixel(Utils.getDecodeConfig());
+        mTileCache = new LongLruCache<Bitmap>(screenBytes * TILE_CACHE_SCREENS) {
+            @Override
+            protected int sizeOf(long key, Bitmap tile) {
+                return tile.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, long key, Bitmap oldTile, Bitmap newTile) {
+                //  Only the UI thread draws tiles, and it no longer finds this one
+                mBitmapPool.put(oldTile);
+            }
+        };
+
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        zoomTo(mScale * detector.getScaleFactor(),
+                                detector.getFocusX(), detector.getFocusY());
+                        return true;
+                    }
+                });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent event) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent down, MotionEvent event,
+                                    float distanceX, float distanceY) {
+                mCenterX += distanceX / mScale;
+                mCenterY += distanceY / mScale;
+                updateViewport();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent event) {
+                final float fitScale = getFitScale();
+                final float closeScale = Math.min(getMaxScale(), Math.max(1f, fitScale * 2));
+                zoomTo(mScale > fitScale * 1.01f ? fitScale : closeScale, event.getX(), event.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     *  Starts loading an image, replacing the one shown. Must be called on the UI thread.
+     *
+     *  @param imagePath        file path of the image
+     *  @param thumbnailKey     memory cache key of a thumbnail of the image to show while
+     *                          it loads, see {@link ImageEntry#getCacheKey(int, int)}
+     */
+    public void setImage(String imagePath, long thumbnailKey) {
+        release();
+        mThumbnail = Utils.getMemoryCache(getContext()).get(thumbnailKey);
+        if (mThumbnail != null) {
+            //  Keeps its Bitmap out of the pool even if the cache evicts it
+            mThumbnail.setIsDisplayed(true);
+        }
+        mLoadTask = new LoadTask();
+        mLoadTask.executeOnExecutor(DecodeScheduler.getViewerExecutor(), imagePath);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        release();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        if (mBaseLayer != null) {
+            fitToView();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mBaseLayer == null) {
+            return super.onTouchEvent(event);
+        }
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mBaseLayer == null) {
+            if (mThumbnail != null) {
+                drawThumbnail(canvas);
+            }
+            return;
+        }
+        canvas.save();
+        canvas.concat(mMatrix);
+        mDrawRect.set(0, 0, mImageWidth, mImageHeight);
+        canvas.drawBitmap(mBaseLayer, null, mDrawRect, mPaint);
+        if (mTileSampleSize != 0) {
+            //  Tiles that are still decoding leave the base layer showing through
+            final int span = TileLayout.TILE_SIZE * mTileSampleSize;
+            for (int row = mFirstRow; row <= mLastRow; row++) {
+                for (int column = mFirstColumn; column <= mLastColumn; column++) {
+                    final Bitmap tile = mTileCache.get(
+                            TileLayout.getTileKey(mTileSampleSize, column, row));
+                    if (tile != null) {
+                        mDrawRect.set(column * span, row * span,
+                                Math.min(mImageWidth, (column + 1) * span),
+                                Math.min(mImageHeight, (row + 1) * span));
+                        canvas.drawBitmap(tile, null, mDrawRect, mPaint);
+                    }
+                }
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     *  Draws the thumbnail centered, as large as its center crop of the fitted image
+     */
+    private void drawThumbnail(Canvas canvas) {
+        final float side = mThumbnailSide > 0 ? mThumbnailSide : Math.min(getWidth(), getHeight());
+        final int left = Math.round((getWidth() - side) / 2);
+        final int top = Math.round((getHeight() - side) / 2);
+        mDrawRect.set(left, top, left + Math.round(side), top + Math.round(side));
+        canvas.drawBitmap(mThumbnail.getBitmap(), null, mDrawRect, mPaint);
+    }
+
+    private void releaseThumbnail() {
+        if (mThumbnail != null) {
+            mThumbnail.setIsDisplayed(false);
+            mThumbnail = null;
+        }
+        mThumbnailSide = 0;
+    }
+
+    /**
+     *  Stops every decode and lets go of the image
+     */
+    private void release() {
+        releaseThumbnail();
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+        }
+        for (int i = 0; i < mPendingTiles.size(); i++) {
+            mPendingTiles.valueAt(i).cancelDecode();
+        }
+        mPendingTiles.clear();
+        mTileCache.evictAll();
+        mTileSampleSize = 0;
+        if (mDecoder != null) {
+            //  Recycling waits for a running tile decode, so keep it off the UI thread
+            final BitmapRegionDecoder decoder = mDecoder;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decoder.recycle();
+                }
+            });
+            mDecoder = null;
+        }
+        if (mBaseLayer != null) {
+            mBitmapPool.put(mBaseLayer);
+            mBaseLayer = null;
+        }
+        invalidate();
+    }
+
+    private int getUprightWidth() {
+        return mRotation == 90 || mRotation == 270 ? mImageHeight : mImageWidth;
+    }
+
+    private int getUprightHeight() {
+        return mRotation == 90 || mRotation == 270 ? mImageWidth : mImageHeight;
+    }
+
+    /**
+     *  @return                 the scale at which the whole image fits the view
+     */
+    private float getFitScale() {
+        return Math.min((float) getWidth() / getUprightWidth(),
+                (float) getHeight() / getUprightHeight());
+    }
+
+    private float getMaxScale() {
+        return Math.max(MAX_SCALE, getFitScale());
+    }
+
+    private void fitToView() {
+        mScale = getFitScale();
+        mCenterX = getUprightWidth() / 2f;
+        mCenterY = getUprightHeight() / 2f;
+        updateViewport();
+    }
+
+    /**
+     *  Zooms while keeping the image point under the focus in place
+     *
+     *  @param scale            the new scale, limited to the allowed range
+     *  @param focusX           the view position to zoom around
+     *  @param focusY           the view position to zoom around
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        final float newScale = Math.max(getFitScale(), Math.min(getMaxScale(), scale));
+        final float offsetX = focusX - getWidth() / 2f;
+        final float offsetY = focusY - getHeight() / 2f;
+        mCenterX += offsetX / mScale - offsetX / newScale;
+        mCenterY += offsetY / mScale - offsetY / newScale;
+        mScale = newScale;
+        updateViewport();
+    }
+
+    /**
+     *  Applies a change of zoom or position: keeps the image on screen, rebuilds the
+     *  matrix, and brings the tiles up to date with what is now visible
+     */
+    private void updateViewport() {
+        if (mBaseLayer == null || getWidth() == 0) {
+            return;
+        }
+        mCenterX = clampCenter(mCenterX, getUprightWidth(), getWidth());
+        mCenterY = clampCenter(mCenterY, getUprightHeight(), getHeight());
+
+        mMatrix.setTranslate(-mImageWidth / 2f, -mImageHeight / 2f);
+        mMatrix.postRotate(mRotation);
+        mMatrix.postTranslate(getUprightWidth() / 2f - mCenterX, getUprightHeight() / 2f - mCenterY);
+        mMatrix.postScale(mScale, mScale);
+        mMatrix.postTranslate(getWidth() / 2f, getHeight() / 2f);
+        mMatrix.invert(mInverseMatrix);
+        mVisibleRect.set(0, 0, getWidth(), getHeight());
+        mInverseMatrix.mapRect(mVisibleRect);
+
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     *  @return                 the center, moved so that the image covers the view along
+     *                          this side, or centered if it is smaller than the view
+     */
+    private float clampCenter(float center, int uprightSide, int viewSide) {
+        final float halfView = viewSide / 2f / mScale;
+        if (uprightSide <= 2 * halfView) {
+            return uprightSide / 2f;
+        }
+        return Math.max(halfView, Math.min(uprightSide - halfView, center));
+    }
+
+    /**
+     *  Cancels the decodes of tiles that went off screen and starts decoding the visible
+     *  tiles that are not cached yet
+     */
+    private void updateTiles() {
+        final int sampleSize = TileLayout.getSampleSizeForScale(mScale);
+        if (mDecoder == null || sampleSize >= mBaseSampleSize) {
+            mTileSampleSize = 0;
+        } else {
+            mTileSampleSize = sampleSize;
+            mFirstColumn = Math.max(0, TileLayout.getTileIndex(mVisibleRect.left, sampleSize));
+            mLastColumn = Math.min(TileLayout.getTileCount(mImageWidth, sampleSize) - 1,
+                    TileLayout.getTileIndex(mVisibleRect.right, sampleSize));
+            mFirstRow = Math.max(0, TileLayout.getTileIndex(mVisibleRect.top, sampleSize));
+            mLastRow = Math.min(TileLayout.getTileCount(mImageHeight, sampleSize) - 1,
+                    TileLayout.getTileIndex(mVisibleRect.bottom, sampleSize));
+        }
+
+        boolean hasCancelled = false;
+        for (int i = mPendingTiles.size() - 1; i >= 0; i--) {
+            final TileTask task = mPendingTiles.valueAt(i);
+            if (!isTileVisible(task.sampleSize, task.column, task.row)) {
+                task.cancelDecode();
+                mPendingTiles.removeAt(i);
+                hasCancelled = true;
+            }
+        }
+        if (hasCancelled) {
+            //  Drop the cancelled tiles from the queue, so they are not even started
+            DecodeScheduler.getViewerExecutor().purge();
+        }
+
+        if (mTileSampleSize == 0) {
+            return;
+        }
+        for (int row = mFirstRow; row <= mLastRow; row++) {
+            for (int column = mFirstColumn; column <= mLastColumn; column++) {
+                final long key = TileLayout.getTileKey(mTileSampleSize, column, row);
+                if (!mTileCache.containsKey(key) && mPendingTiles.get(key) == null) {
+                    final TileTask task = new TileTask(mDecoder, mTileSampleSize, column, row,
+                            mImageWidth, mImageHeight);
+                    mPendingTiles.put(key, task);
+                    task.executeOnExecutor(DecodeScheduler.getViewerExecutor());
+                }
+            }
+        }
+    }
+
+    private boolean isTileVisible(int sampleSize, int column, int row) {
+        return sampleSize == mTileSampleSize
+                && column >= mFirstColumn && column <= mLastColumn
+                && row >= mFirstRow && row <= mLastRow;
+    }
+
+    /**
+     *  Reads the size and orientation of the image, opens its region decoder and
+     *  decodes the base layer
+     */
+    private class LoadTask extends AsyncTask<String, Void, Boolean> {
+        private BitmapRegionDecoder decoder;
+        private Bitmap baseLayer;
+        private int baseSampleSize;
+        private int imageWidth;
+        private int imageHeight;
+        private int rotation;
+
+        @Override
+        protected Boolean doInBackground(String... params) {
+            final String imagePath = params[0];
+            final BitmapFactory.Options opts = Utils.getImageBounds(imagePath);
+            imageWidth = opts.outWidth;
+            imageHeight = opts.outHeight;
+            if (imageWidth <= 0 || imageHeight <= 0 || isCancelled()) {
+                return false;
+            }
+            rotation = Utils.getExifRotation(imagePath);
+            //  Enough to place the thumbnail while the base layer decodes
+            publishProgress();
+            try {
+                decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+            } catch (IOException e) {
+                Log.w(TAG, "No region decoder for '" + imagePath + "', zoom shows the base layer");
+            }
+            baseSampleSize = TileLayout.getBaseSampleSize(imageWidth, imageHeight, mMaxBaseSide);
+            opts.inJustDecodeBounds = false;
+            opts.inSampleSize = baseSampleSize;
+            opts.inPreferredConfig = Utils.getDecodeConfig();
+            baseLayer = mBitmapPool.decodeFile(imagePath, opts);
+            return baseLayer != null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Void... values) {
+            if (mLoadTask != this || mThumbnail == null) {
+                return;
+            }
+            final boolean isQuarterTurn = rotation == 90 || rotation == 270;
+            final int uprightWidth = isQuarterTurn ? imageHeight : imageWidth;
+            final int uprightHeight = isQuarterTurn ? imageWidth : imageHeight;
+            final float fitScale = Math.min((float) getWidth() / uprightWidth,
+                    (float) getHeight() / uprightHeight);
+            mThumbnailSide = Math.min(uprightWidth, uprightHeight) * fitScale;
+            invalidate();
+        }
+
+        @Override
+        protected void onPostExecute(Boolean isLoaded) {
+            if (mLoadTask == this) {
+                mLoadTask = null;
+            }
+            if (!isLoaded) {
+                Log.w(TAG, "Unable to load the image");
+                onCancelled(isLoaded);
+                return;
+            }
+            releaseThumbnail();
+            mDecoder = decoder;
+            mBaseLayer = baseLayer;
+            mBaseSampleSize = baseSampleSize;
+            mImageWidth = imageWidth;
+            mImageHeight = imageHeight;
+            mRotation = rotation;
+            fitToView();
+        }
+
+        @Override
+        protected void onCancelled(Boolean isLoaded) {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            mBitmapPool.put(baseLayer);
+        }
+    }
+
+    /**
+     *  Decodes one tile of the image
+     */
+    private class TileTask extends AsyncTask<Void, Void, Bitmap> {
+        final int sampleSize;
+        final int column;
+        final int row;
+        private final BitmapRegionDecoder decoder;
+        private final int imageWidth;
+        private final int imageHeight;
+        private final BitmapFactory.Options opts = new BitmapFactory.Options();
+        private final Rect region = new Rect();
+
+        TileTask(BitmapRegionDecoder decoder, int sampleSize, int column, int row,
+                 int imageWidth, int imageHeight) {
+            this.decoder = decoder;
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+        }
+
+        /**
+         *  Cancels the task, aborting its decode if it is running
+         */
+        void cancelDecode() {
+            cancel(false);
+            opts.requestCancelDecode();
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            if (isCancelled()) {
+                return null;
+            }
+            final int[] bounds = TileLayout.getTileBounds(sampleSize, column, row,
+                    imageWidth, imageHeight);
+            region.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+            opts.inSampleSize = sampleSize;
+            opts.inPreferredConfig = Utils.getDecodeConfig();
+            try {
+                return mBitmapPool.decodeRegion(decoder, region, opts);
+            } catch (IllegalStateException e) {
+                //  The view was released and the decoder recycled
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap tile) {
+            final long key = TileLayout.getTileKey(sampleSize, column, row);
+            if (mPendingTiles.get(key) != this) {
+                //  Released while decoding
+                mBitmapPool.put(tile);
+                return;
+            }
+            mPendingTiles.remove(key);
+            if (tile != null) {
+                mTileCache.put(key, tile);
+                invalidate();
+            }
+        }
+
+        @Override
+        protected void onCancelled(Bitmap tile) {
+            mBitmapPool.put(tile);
+        }
+    }
+}
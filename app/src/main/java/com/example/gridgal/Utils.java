@@ -1,28 +1,39 @@
 package com.example.gridgal;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.ExifInterface;
 import android.graphics.Matrix;
-import android.media.ThumbnailUtils;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.provider.MediaStore;
+import android.support.v4.app.ActivityManagerCompat;
+import android.support.v4.util.LongSparseArray;
 import android.provider.VoicemailContract;
 import android.util.Log;
 import android.support.v7.app.AppCompatActivity;
-import android.util.LruCache;
 import android.widget.ImageView;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static android.R.attr.angle;
 import static android.R.attr.bitmap;
@@ -41,7 +52,40 @@ import static java.security.AccessController.getContext;
 public class Utils {
 
     private static final String TAG = "Utils";
-    private static final LruCache<String, Bitmap> bitmapLruCache = new LruCache<>(32);
+    private static ThumbnailMemoryCache bitmapLruCache;
+    private static BitmapPool bitmapPool;
+    private static DiskWriteQueue diskWriteQueue;
+    private static final Object diskCacheLock = new Object();
+    private static DiskThumbnailCache diskCache;
+    private static boolean isDiskCacheUnavailable;
+    //  One budget for every disk store, split between them
+    private static long diskCacheMaxBytes = 64L * 1024 * 1024;
+    //  While the packed stores are in use, the JPEG cache keeps this share of the budget
+    private static final int JPEG_SHARE_WITH_PACKED_STORE_DIVISOR = 4;
+    private static final String DISK_CACHE_DIR = "thumbnails";
+    //  Raw-pixel thumbnail stores by size, used instead of diskCache when enabled. At
+    //  most MAX_PACKED_STORES are kept, least recently used first, each with an equal
+    //  share of the rest of the budget.
+    private static volatile boolean usePackedStore;
+    private static final int MAX_PACKED_STORES = 2;
+    private static final LinkedHashMap<String, PackedThumbnailStore> packedStores =
+            new LinkedHashMap<>(0, 0.75f, true);
+    private static final String PACKED_STORE_DIR = "packed";
+    //  Tasks that are loading a thumbnail, by cache key. Only accessed on the UI thread.
+    private static final LongSparseArray<BitmapWorkerTask> inFlightTasks = new LongSparseArray<>();
+    //  Loads put off while full decodes were paused, issued again once they resume.
+    //  Only accessed on the UI thread.
+    private static final ArrayList<BitmapWorkerTask> deferredTasks = new ArrayList<>();
+    private static final Paint THUMBNAIL_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //  Shown while a thumbnail loads, decoded once. Only used on the UI thread.
+    private static Bitmap placeholderBitmap;
+    //  Shown instead of the placeholder for images whose thumbnail has been made before
+    private static final PlaceholderColors placeholderColors = new PlaceholderColors();
+    //  Verbose logs of the bind path, which runs for every cell while scrolling. The
+    //  constant lets the compiler strip them, flip it to trace a load.
+    private static final boolean LOG_BIND = false;
+    //  Pixel format of the thumbnails handed to views, chosen for the device on first use
+    private static volatile Bitmap.Config thumbnailConfig;
 
     /**
      *  A private constructor is created so no one should ever create a {@link Utils} object.
@@ -52,6 +96,134 @@ public class Utils {
     private Utils() {
     }
 
+    /**
+     *  Returns the in-memory thumbnail cache, creating it on first use so that it can be
+     *  sized from the memory class of the device
+     *
+     *  @param context          a context, used to look up the memory class
+     *  @return                 the shared {@link ThumbnailMemoryCache}
+     */
+    public static synchronized ThumbnailMemoryCache getMemoryCache(Context context) {
+        if (bitmapLruCache == null) {
+            bitmapLruCache = ThumbnailMemoryCache.create(context);
+            initThumbnailConfig(context);
+        }
+        return bitmapLruCache;
+    }
+
+    /**
+     *  Returns the pool of reusable Bitmaps shared by every decode, creating it on first use
+     *
+     *  @param context          a context, used to look up the memory class
+     *  @return                 the shared {@link BitmapPool}
+     */
+    public static synchronized BitmapPool getBitmapPool(Context context) {
+        if (bitmapPool == null) {
+            bitmapPool = BitmapPool.create(context);
+            initThumbnailConfig(context);
+        }
+        return bitmapPool;
+    }
+
+    /**
+     *  Returns the write-behind queue that saves fresh thumbnails to disk, creating it
+     *  on first use
+     *
+     *  @param context          a context, used to look up the memory class
+     *  @return                 the shared {@link DiskWriteQueue}
+     */
+    public static synchronized DiskWriteQueue getDiskWriteQueue(Context context) {
+        if (diskWriteQueue == null) {
+            diskWriteQueue = DiskWriteQueue.create(context, getBitmapPool(context));
+        }
+        return diskWriteQueue;
+    }
+
+    /**
+     *  Chooses the default pixel format, unless one has been set already: RGB_565 on
+     *  low-RAM devices, where half the bytes per pixel fit twice the thumbnails in the
+     *  same budget, ARGB_8888 otherwise. HARDWARE is never the default, see
+     *  {@link #setThumbnailConfig(Bitmap.Config)}.
+     */
+    private static void initThumbnailConfig(Context context) {
+        if (thumbnailConfig != null) {
+            return;
+        }
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        thumbnailConfig = ActivityManagerCompat.isLowRamDevice(activityManager)
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     *  Sets the pixel format of thumbnails for new loads. Thumbnails are decoded, pooled
+     *  and written to the packed store in {@link #getDecodeConfig()}; with HARDWARE they
+     *  are only moved to graphics memory once they are final.
+     *
+     *  HARDWARE is opt-in, as it costs more than it saves for a scrolling grid: every
+     *  disk hit pays a full copy into graphics memory on top of its load, larger cached
+     *  thumbnails can no longer be scaled down in place of a decode, and the memory
+     *  cache still counts the copies against its heap budget.
+     *
+     *  @param config           RGB_565, ARGB_8888, or HARDWARE (Oreo and up)
+     */
+    public static void setThumbnailConfig(Bitmap.Config config) {
+        if (config != Bitmap.Config.RGB_565 && config != Bitmap.Config.ARGB_8888
+                && !isHardwareConfig(config)) {
+            throw new IllegalArgumentException("Unsupported thumbnail config " + config);
+        }
+        thumbnailConfig = config;
+    }
+
+    /**
+     *  @return                 the pixel format of the thumbnails handed to views
+     */
+    public static Bitmap.Config getThumbnailConfig() {
+        return thumbnailConfig != null ? thumbnailConfig : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     *  @return                 the pixel format decodes work in, which is the thumbnail
+     *                          config except that HARDWARE bitmaps can neither be drawn
+     *                          into nor pooled, so those are decoded as ARGB_8888
+     */
+    static Bitmap.Config getDecodeConfig() {
+        final Bitmap.Config config = getThumbnailConfig();
+        return isHardwareConfig(config) ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    private static boolean isHardwareConfig(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    /**
+     *  Moves a finished thumbnail to graphics memory if HARDWARE thumbnails are in use,
+     *  returning the software copy to the pool. Safe to call from any thread.
+     *
+     *  @return                 the Bitmap to display, the given one if no copy was made
+     */
+    static Bitmap toThumbnailConfig(Bitmap thumbnail, BitmapPool pool) {
+        final Bitmap converted = toThumbnailConfig(thumbnail);
+        if (converted != thumbnail) {
+            pool.put(thumbnail);
+        }
+        return converted;
+    }
+
+    /**
+     *  Like {@link #toThumbnailConfig(Bitmap, BitmapPool)}, but leaves the software
+     *  Bitmap to the caller
+     */
+    static Bitmap toThumbnailConfig(Bitmap thumbnail) {
+        if (isHardwareConfig(getThumbnailConfig())) {
+            final Bitmap hardware = thumbnail.copy(Bitmap.Config.HARDWARE, false);
+            if (hardware != null) {
+                return hardware;
+            }
+        }
+        return thumbnail;
+    }
+
 
 
     /**
@@ -65,6 +237,28 @@ public class Utils {
      */
 
 
+    /**
+     *  Scales a cached thumbnail down to a smaller size bucket, which is far cheaper
+     *  than decoding the original image again
+     *
+     *  @param larger           a thumbnail of a larger size, it is not modified
+     *  @param rWidth           required width of the thumbnail
+     *  @param rHeight          required height of the thumbnail
+     *  @param pool             pool the output Bitmap is taken from
+     *  @return                 a new Bitmap of rWidth x rHeight
+     */
+    static Bitmap downscaleThumbnail(Bitmap larger, int rWidth, int rHeight, BitmapPool pool) {
+        return transformToThumbnail(larger, 0, rWidth, rHeight, pool);
+    }
+
+    /**
+     *  @return                 the start of a stage for {@link PipelineMetrics#record(int, long)},
+     *                          or 0, which records nothing, for work that is not measured
+     */
+    private static long startStage(boolean isMeasured) {
+        return isMeasured ? PipelineMetrics.start() : 0;
+    }
+
     /**
      *  Creates and returns a Bitmap of the image at the given filepath,
      *  scaled down to fit the area the Bitmap will be displayed in
@@ -72,137 +266,222 @@ public class Utils {
      *  @param imagePath        file path of the image to be scaled
      *  @param rWidth           required width of Bitmap to be displayed
      *  @param rHeight          required height of Bitmap to be displayed
-     *  @return                 a Bitmap scaled to cover the image view area
+     *  @param pool             pool that intermediate Bitmaps are decoded into and returned to
+     *  @param signal           checked between stages and forwarded to the running decode,
+     *                          so that cancelled work stops as early as possible
+     *  @param isMeasured       true to record the stages in {@link PipelineMetrics}, false
+     *                          for background work that should not skew the grid's latencies
+     *  @return                 a Bitmap scaled to cover the image view area, or null if
+     *                          the image could not be decoded or the work was cancelled
      */
-    public static Bitmap decodeIncomingImage(String imagePath, int rWidth, int rHeight){
-
-        //  Start Logging
-        Log.v(TAG, "Starting the Image Scaling Process for " + imagePath);
-        long startTime = android.os.SystemClock.uptimeMillis();
+    public static Bitmap decodeIncomingImage(String imagePath, int rWidth, int rHeight,
+                                             BitmapPool pool, CancellationSignal signal,
+                                             boolean isMeasured){
 
         //  Get the bounds of the image to be Bitmapped
         //  First decode with inJustDecodeBounds=true to check dimensions
+        long stageStart = startStage(isMeasured);
         final BitmapFactory.Options opts = getImageBounds(imagePath);
+        PipelineMetrics.record(PipelineMetrics.STAGE_BOUNDS, stageStart);
+
+        //  Checking Orientation of the image, a quarter turn swaps the required
+        //  dimensions relative to the stored (unrotated) pixels
+        stageStart = startStage(isMeasured);
+        final int rotation = getExifRotation(imagePath);
+        PipelineMetrics.record(PipelineMetrics.STAGE_ORIENTATION, stageStart);
+        final boolean isQuarterTurn = rotation == 90 || rotation == 270;
+        if (signal.isCanceled()) {
+            return null;
+        }
+
+        //  Only the center-crop area ends up in the thumbnail. It is found on the stored
+        //  pixels, where a quarter turn swaps the required dimensions.
+        final int rawWidth = opts.outWidth;
+        final int rawHeight = opts.outHeight;
+        final int storedWidth = isQuarterTurn ? rHeight : rWidth;
+        final int storedHeight = isQuarterTurn ? rWidth : rHeight;
+        int[] crop = ThumbnailSizing.getCenterCrop(rawWidth, rawHeight, storedWidth, storedHeight, 1);
+        final boolean isCropped = crop[2] - crop[0] < rawWidth || crop[3] - crop[1] < rawHeight;
 
         //  Calculate inSampleSize
-        opts.inSampleSize = calculateInSampleSize(opts.outWidth,
-                opts.outHeight, rWidth, rHeight);
+        opts.inSampleSize = ThumbnailSizing.calculateInSampleSize(crop[2] - crop[0],
+                crop[3] - crop[1], storedWidth, storedHeight);
 
         //  Decode bitmap with inSampleSize set
         opts.inJustDecodeBounds = false;
-        Bitmap sampledBmp = BitmapFactory.decodeFile(imagePath, opts);
+        opts.inPreferredConfig = getDecodeConfig();
+        stageStart = startStage(isMeasured);
+        Bitmap sampledBmp = null;
+        if (isCropped) {
+            //  Skip decoding the pixels that would be cropped away
+            crop = ThumbnailSizing.getCenterCrop(rawWidth, rawHeight, storedWidth, storedHeight,
+                    opts.inSampleSize);
+            sampledBmp = decodeRegionCancellable(imagePath,
+                    new Rect(crop[0], crop[1], crop[2], crop[3]), opts, pool, signal);
+        }
+        if (sampledBmp == null && !signal.isCanceled()) {
+            //  Nothing to crop, or the region decoder does not handle this file
+            opts.outWidth = rawWidth;
+            opts.outHeight = rawHeight;
+            sampledBmp = decodeCancellable(imagePath, opts, pool, signal);
+        }
+        PipelineMetrics.record(PipelineMetrics.STAGE_DECODE, stageStart);
+        if (sampledBmp == null) {
+            Log.w(TAG, "Unable to decode '" + imagePath + "'");
+            return null;
+        }
+        if (signal.isCanceled()) {
+            pool.put(sampledBmp);
+            return null;
+        }
 
-        //  Logging
-        long sampledTime = android.os.SystemClock.uptimeMillis();
-        Log.v(TAG, "Created a Sampled Bitmap for " + imagePath + ", in " +
-                (sampledTime - startTime) + "ms");
+        //  Rotates, scales and center-crops in a single draw into the final Bitmap
+        stageStart = startStage(isMeasured);
+        Bitmap finalBitmap = transformToThumbnail(sampledBmp, rotation, rWidth, rHeight, pool);
+        PipelineMetrics.record(PipelineMetrics.STAGE_CROP, stageStart);
 
-        //  Checking Orientation of the image
-        Bitmap orientBmp = setOrientation(sampledBmp, imagePath);
-        long setOrientationTime = android.os.SystemClock.uptimeMillis();
-        Log.v(TAG, "Set Orientation (if needed) for " + imagePath + ", in " +
-                (setOrientationTime - sampledTime) + "ms");
+        //  The sampled Bitmap is no longer needed, give it back for the next decode
+        if (finalBitmap != sampledBmp) {
+            pool.put(sampledBmp);
+        }
 
-        //  Creates a centered bitmap of the desired size.
-        Bitmap finalBitmap = ThumbnailUtils.extractThumbnail(orientBmp, rWidth, rHeight);
+        return finalBitmap;
+    }
 
-        //  Finishing up logging activity for this method
-        long endTime = android.os.SystemClock.uptimeMillis();
-        Log.v(TAG, "Concluded Resizing Bitmap for " + imagePath + ", in " +
-                (endTime - setOrientationTime) + "ms");
-        Log.v(TAG, "Concluded Creating Bitmap for " + imagePath + ", in " +
-                (endTime - startTime) + "ms");
 
-        return finalBitmap;
+    /**
+     *  Decodes a file into a pooled Bitmap, aborting the decode itself through
+     *  {@link BitmapFactory.Options#requestCancelDecode()} if the signal is cancelled
+     *  while it runs
+     *
+     *  @return                 the decoded Bitmap, or null if decoding failed or was cancelled
+     */
+    private static Bitmap decodeCancellable(String imagePath, final BitmapFactory.Options opts,
+                                            BitmapPool pool, CancellationSignal signal) {
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                opts.requestCancelDecode();
+            }
+        });
+        try {
+            return pool.decodeFile(imagePath, opts);
+        } finally {
+            signal.setOnCancelListener(null);
+        }
     }
 
 
     /**
-     *  Sets a new rotated Bitmap in accordance to the orientation specified in a source file
+     *  Decodes one area of a file into a pooled Bitmap with {@link BitmapRegionDecoder},
+     *  aborting the decode if the signal is cancelled while it runs
+     *
+     *  @param region           the area to decode, in stored pixels of the image
+     *  @return                 the decoded area, or null if the file has no region decoder
+     *                          (only JPEG, PNG and WebP have one), decoding failed, or
+     *                          it was cancelled
+     */
+    private static Bitmap decodeRegionCancellable(String imagePath, Rect region,
+                                                  final BitmapFactory.Options opts,
+                                                  BitmapPool pool, CancellationSignal signal) {
+        final BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+        } catch (IOException e) {
+            return null;
+        }
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                opts.requestCancelDecode();
+            }
+        });
+        try {
+            return pool.decodeRegion(decoder, region, opts);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unable to decode " + region + " of '" + imagePath + "'", e);
+            return null;
+        } finally {
+            signal.setOnCancelListener(null);
+            decoder.recycle();
+        }
+    }
+
+
+    /**
+     *  Reads the rotation specified in the EXIF data of a source file
      *
-     *  @param sampledBmp       the Bitmap to rotate
      *  @param imagePath        the file containing the Bitmap's source
      *
-     *  @return                 a new Bitmap with the correct rotation
+     *  @return                 the clockwise rotation to apply, in degrees
      */
-    private static Bitmap setOrientation(Bitmap sampledBmp, String imagePath) {
+    static int getExifRotation(String imagePath) {
 
         try {
             //  Get orientation information of the image file
             ExifInterface exif = new ExifInterface(imagePath);
             int currentOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            float rotateBmp;
             switch (currentOrientation) {
-                case ExifInterface.ORIENTATION_NORMAL:
-                    rotateBmp = 0;
-                    break;
                 case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotateBmp = 90;
-                    break;
+                    return 90;
                 case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotateBmp = 180;
-                    break;
+                    return 180;
                 case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotateBmp = 270;
-                    break;
+                    return 270;
                 default:
-                    rotateBmp = 0;
-                    break;
+                    return 0;
             }
-            return rotateImage(sampledBmp, rotateBmp);
         } catch(IOException e) {
             Log.w(TAG, "Unable to open '" + imagePath + "' to read its current orientation");
-            return sampledBmp;
+            return 0;
         }
     }
 
     /**
-     *  Returns a rotated version of a Bitmap
+     *  Rotates, scales and center-crops a Bitmap in one pass. A single matrix maps the
+     *  source onto the output, so only one draw and one output Bitmap are needed. When
+     *  the source is already upright and at the required size it is returned as is.
      *
-     *  @param sampledBmp           the image to rotate
-     *  @param rotateBmp            the amount to rotate the image by, in degrees
+     *  @param sampledBmp           the sampled image to transform
+     *  @param rotation             the clockwise rotation to apply, in degrees
+     *  @param rWidth               required width of the thumbnail
+     *  @param rHeight              required height of the thumbnail
+     *  @param pool                 pool the output Bitmap is taken from
      *
-     *  @return                     a new Bitmap with the newly set rotation
+     *  @return                     a Bitmap of rWidth x rHeight covering the thumbnail area
      */
-    private static Bitmap rotateImage(Bitmap sampledBmp, float rotateBmp) {
-        Matrix matrix = new Matrix();
-        matrix.postRotate(rotateBmp);
-        Bitmap rotatedImage = Bitmap.createBitmap(sampledBmp,
-                0, 0, sampledBmp.getWidth(),
-                sampledBmp.getHeight(), matrix, true);
-
-        return rotatedImage;
-    }
-
-
-    /**
-     *  Calculates the sample size of the image to scale it down to the given size on
-     *  the {@link android.widget.GridView}
-     *
-     *  @param rawWidth         raw width of the image a.k.a outWidth
-     *  @param rawHeight        raw height of the image a.k.a outHeight
-     *  @param rWidth           required width of Bitmap to be displayed
-     *  @param rHeight          required height of Bitmap to be displayed
-     *
-     *  @return                 Calculated Sample Size value based on target width and height
-     */
-    private static int calculateInSampleSize(int rawWidth, int rawHeight, int rWidth, int rHeight) {
-        int inSampleSize = 1;
-
-        if (rawHeight > rHeight || rawWidth > rWidth) {
-
-            final int halfHeight = rawHeight / 2;
-            final int halfWidth = rawWidth / 2;
+    private static Bitmap transformToThumbnail(Bitmap sampledBmp, int rotation, int rWidth,
+                                               int rHeight, BitmapPool pool) {
+        final int srcWidth = sampledBmp.getWidth();
+        final int srcHeight = sampledBmp.getHeight();
+        if (rotation == 0 && srcWidth == rWidth && srcHeight == rHeight) {
+            return sampledBmp;
+        }
 
-            //  Calculates the largest inSampleSize value that is a power of 2 and
-            // keeps both height and width larger than the requested height and width.
-            while ((halfHeight / inSampleSize) > rHeight
-                    && (halfWidth / inSampleSize) > rWidth) {
-                inSampleSize *= 2;
-            }
+        //  Scale so the rotated image covers the whole thumbnail, the overflow is cropped
+        final boolean isQuarterTurn = rotation == 90 || rotation == 270;
+        final int rotatedWidth = isQuarterTurn ? srcHeight : srcWidth;
+        final int rotatedHeight = isQuarterTurn ? srcWidth : srcHeight;
+        final float scale = Math.max((float) rWidth / rotatedWidth, (float) rHeight / rotatedHeight);
+
+        final Matrix matrix = new Matrix();
+        matrix.setTranslate(-srcWidth / 2f, -srcHeight / 2f);
+        matrix.postRotate(rotation);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(rWidth / 2f, rHeight / 2f);
+
+        final Bitmap.Config config = sampledBmp.getConfig() != null
+                ? sampledBmp.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap thumbnail = pool.get(rWidth, rHeight, config);
+        if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(rWidth, rHeight, config);
         }
 
-        return inSampleSize;
+        final Canvas canvas = new Canvas(thumbnail);
+        canvas.drawBitmap(sampledBmp, matrix, THUMBNAIL_PAINT);
+        canvas.setBitmap(null);
+
+        return thumbnail;
     }
 
 
@@ -215,7 +494,7 @@ public class Utils {
      *                          outWidth and outHeight are the width and height
      *                          of the image
      */
-    private static BitmapFactory.Options getImageBounds(String imagePath) {
+    static BitmapFactory.Options getImageBounds(String imagePath) {
 
         BitmapFactory.Options opts = new BitmapFactory.Options();
         //  Setting the inJustDecodeBounds property to true while decoding avoids
@@ -232,17 +511,395 @@ public class Utils {
      *  ********************************************************************************
      *  ********************************************************************************
      *
-     *          MEDIASTORE REQUEST
+     *          CACHING BITMAPS ON DISK
      *
      *  ********************************************************************************
      *  ********************************************************************************
      */
 
-    //  MediaStore Images Query
-    public static String[] getImagePaths(Context context)
-    {
-        context = MainActivity.getContext();
 
+    /**
+     *  Returns the disk thumbnail cache, opening it on first use. Opening reads the
+     *  journal, so this must only be called from a worker thread.
+     *
+     *  @param context          a context, used to find the cache directory
+     *  @return                 the shared {@link DiskThumbnailCache}, or null if it could
+     *                          not be opened (thumbnails are then only kept in memory)
+     */
+    static DiskThumbnailCache getDiskCache(Context context) {
+        //  A lock of its own, so opening the cache never blocks the UI thread's cache lookups
+        synchronized (diskCacheLock) {
+            if (diskCache == null && !isDiskCacheUnavailable) {
+                File cacheRoot = context.getExternalCacheDir();
+                if (cacheRoot == null) {
+                    //  External storage is not mounted, fall back to internal storage
+                    cacheRoot = context.getCacheDir();
+                }
+                try {
+                    diskCache = DiskThumbnailCache.open(new File(cacheRoot, DISK_CACHE_DIR),
+                            getDiskCacheBudget());
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open the disk thumbnail cache", e);
+                    isDiskCacheUnavailable = true;
+                }
+            }
+            return diskCache;
+        }
+    }
+
+    /**
+     *  Sets the byte budget of all the disk thumbnail stores together. Applies
+     *  immediately to the JPEG cache if it is already open, and to packed stores as
+     *  they are opened.
+     *
+     *  @param maxBytes         the largest number of bytes thumbnails may use on disk
+     */
+    public static void setDiskCacheMaxBytes(long maxBytes) {
+        synchronized (diskCacheLock) {
+            diskCacheMaxBytes = maxBytes;
+            if (diskCache != null) {
+                diskCache.setMaxBytes(getDiskCacheBudget());
+            }
+        }
+    }
+
+    /**
+     *  @return                 the JPEG cache's share of the disk budget, all of it
+     *                          unless the packed stores are in use
+     */
+    private static long getDiskCacheBudget() {
+        return usePackedStore ? diskCacheMaxBytes / JPEG_SHARE_WITH_PACKED_STORE_DIVISOR
+                : diskCacheMaxBytes;
+    }
+
+    /**
+     *  @return                 the share of the disk budget of each packed store
+     */
+    private static long getPackedStoreBudget() {
+        return (diskCacheMaxBytes - diskCacheMaxBytes / JPEG_SHARE_WITH_PACKED_STORE_DIVISOR)
+                / MAX_PACKED_STORES;
+    }
+
+    /**
+     *  Chooses between the JPEG disk cache and the raw-pixel {@link PackedThumbnailStore}
+     *  for thumbnails that are saved to disk. The packed store trades disk space (about
+     *  ten times the JPEG size) for hits that need no decode. While it is in use, the
+     *  JPEG cache is cut to a quarter of the disk budget and the packed stores share
+     *  the rest.
+     *
+     *  @param enabled          true to use the packed store for new loads
+     */
+    public static void setUsePackedThumbnailStore(boolean enabled) {
+        synchronized (diskCacheLock) {
+            usePackedStore = enabled;
+            if (diskCache != null) {
+                diskCache.setMaxBytes(getDiskCacheBudget());
+            }
+        }
+    }
+
+    /**
+     *  Returns the packed store for thumbnails of the given size, opening it on first
+     *  use. Opening a store past {@link #MAX_PACKED_STORES} closes and deletes the least
+     *  recently used one, so the stores never hold more than their share of the budget.
+     *  Like {@link #getDiskCache(Context)}, this must only be called from a worker thread.
+     *
+     *  @return                 the store, or null if it could not be opened
+     */
+    static PackedThumbnailStore getPackedStore(Context context, int width, int height) {
+        //  Raw pixels depend on the format, so each format has a store of its own
+        final Bitmap.Config config = getDecodeConfig();
+        final String name = width + "x" + height + "-" + config.name();
+        synchronized (diskCacheLock) {
+            PackedThumbnailStore store = packedStores.get(name);
+            if (store == null && !packedStores.containsKey(name)) {
+                File cacheRoot = context.getExternalCacheDir();
+                if (cacheRoot == null) {
+                    cacheRoot = context.getCacheDir();
+                }
+                final File storesRoot = new File(cacheRoot, PACKED_STORE_DIR);
+                evictPackedStores(storesRoot, MAX_PACKED_STORES - 1);
+                try {
+                    store = PackedThumbnailStore.open(new File(storesRoot, name),
+                            width * height * BitmapPool.getBytesPerPixel(config),
+                            getPackedStoreBudget());
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to open the packed thumbnail store " + name, e);
+                }
+                //  A null entry remembers that the store could not be opened
+                packedStores.put(name, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     *  Closes the least recently used packed stores until at most the given number are
+     *  open, and deletes every store directory that is not open, including those left
+     *  by earlier runs. Must be called with diskCacheLock held.
+     */
+    private static void evictPackedStores(File storesRoot, int maxOpen) {
+        final Iterator<Map.Entry<String, PackedThumbnailStore>> eldest =
+                packedStores.entrySet().iterator();
+        while (packedStores.size() > maxOpen) {
+            final PackedThumbnailStore store = eldest.next().getValue();
+            eldest.remove();
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to close a packed thumbnail store", e);
+                }
+            }
+        }
+        final File[] directories = storesRoot.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (!packedStores.containsKey(directory.getName())) {
+                final File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    /**
+     *  Copies a thumbnail out of a packed store into a (pooled) Bitmap, no decode involved
+     *
+     *  @return                 the thumbnail, or null on a miss
+     */
+    static Bitmap readPackedThumbnail(PackedThumbnailStore store, String key, int width,
+                                      int height, BitmapPool pool) throws IOException {
+        final Bitmap.Config config = getDecodeConfig();
+        Bitmap reusable = pool.get(width, height, config);
+        if (reusable == null) {
+            reusable = Bitmap.createBitmap(width, height, config);
+        }
+        final Bitmap bitmap = reusable;
+        final boolean isHit = store.read(key, new PackedThumbnailStore.PixelReader() {
+            @Override
+            public void read(ByteBuffer pixels) {
+                bitmap.copyPixelsFromBuffer(pixels);
+            }
+        });
+        if (!isHit) {
+            pool.put(bitmap);
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     *  Copies a thumbnail's pixels into a packed store
+     */
+    static void writePackedThumbnail(PackedThumbnailStore store, String key,
+                                     final Bitmap thumbnail) throws IOException {
+        store.write(key, new PackedThumbnailStore.PixelWriter() {
+            @Override
+            public void write(ByteBuffer pixels) {
+                thumbnail.copyPixelsToBuffer(pixels);
+            }
+        });
+    }
+
+    /**
+     *  Builds the disk cache key of a thumbnail. The source's mtime and size are part of
+     *  the key, so edited images miss. Reads the file's attributes, so must only be
+     *  called from a worker thread.
+     *
+     *  @param imagePath        file path of the full-size image
+     *  @param width            width of the thumbnail
+     *  @param height           height of the thumbnail
+     *  @return                 the key used by both disk stores
+     */
+    static String getDiskKey(String imagePath, int width, int height) {
+        final File sourceFile = new File(imagePath);
+        return DiskThumbnailCache.keyFor(imagePath, sourceFile.lastModified(),
+                sourceFile.length(), width, height);
+    }
+
+    /**
+     *  Checks whether a thumbnail is already on disk, without reading it or changing
+     *  its position in the LRU order
+     */
+    static boolean isThumbnailOnDisk(Context context, String diskKey, int width, int height) {
+        if (getDiskWriteQueue(context).isPending(diskKey)) {
+            //  As good as on disk, it is about to be written
+            return true;
+        }
+        if (usePackedStore) {
+            final PackedThumbnailStore packedStore = getPackedStore(context, width, height);
+            return packedStore != null && packedStore.contains(diskKey);
+        }
+        final DiskThumbnailCache diskCache = getDiskCache(context);
+        return diskCache != null && diskCache.contains(diskKey);
+    }
+
+    /**
+     *  Loads a previously generated thumbnail from whichever disk store is in use
+     *
+     *  @return                 the thumbnail, or null on a miss or if cancelled
+     */
+    static Bitmap loadThumbnailFromDisk(Context context, String diskKey, int width, int height,
+                                        BitmapPool pool, CancellationSignal signal)
+            throws IOException {
+        final long startTime = PipelineMetrics.start();
+        //  Queued to be written, so as good as on disk, see isThumbnailOnDisk
+        final Bitmap pending = getDiskWriteQueue(context).copyPending(diskKey);
+        if (pending != null) {
+            PipelineMetrics.record(PipelineMetrics.STAGE_DISK_READ, startTime);
+            return pending;
+        }
+        if (usePackedStore) {
+            final PackedThumbnailStore packedStore = getPackedStore(context, width, height);
+            final Bitmap thumbnail = packedStore != null
+                    ? readPackedThumbnail(packedStore, diskKey, width, height, pool)
+                    : null;
+            if (thumbnail != null) {
+                PipelineMetrics.record(PipelineMetrics.STAGE_DISK_READ, startTime);
+            }
+            return thumbnail;
+        }
+
+        final DiskThumbnailCache diskCache = getDiskCache(context);
+        final File cachedImageFile = diskCache != null ? diskCache.get(diskKey) : null;
+        if (cachedImageFile == null) {
+            return null;
+        }
+        //  Cached thumbnails are stored at their final size, so a pooled
+        //  Bitmap of that size can be decoded into directly
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.outWidth = width;
+        opts.outHeight = height;
+        opts.inPreferredConfig = getDecodeConfig();
+        Bitmap thumbnail = decodeCancellable(cachedImageFile.getAbsolutePath(), opts,
+                pool, signal);
+        if (thumbnail != null) {
+            PipelineMetrics.record(PipelineMetrics.STAGE_DISK_READ, startTime);
+        } else if (!signal.isCanceled()) {
+            //  The file was deleted or damaged behind the cache's back
+            diskCache.remove(diskKey);
+        }
+        return thumbnail;
+    }
+
+    /**
+     *  Looks for a thumbnail of the same image in a larger size bucket on disk, and
+     *  scales it down to the required size. Only square thumbnails in the JPEG disk
+     *  cache are looked up, the packed store keeps one store per size and opening the
+     *  others just to look would cost more than it saves. Does disk I/O, so must not
+     *  be called on the UI thread.
+     *
+     *  @return                 the thumbnail at the required size, or null if no larger
+     *                          one was found
+     */
+    static Bitmap loadLargerThumbnailFromDisk(Context context, String imagePath, int width,
+                                              int height, BitmapPool pool, CancellationSignal signal)
+            throws IOException {
+        if (width != height || usePackedStore) {
+            return null;
+        }
+        for (int bucket : ThumbnailSizing.SIZE_BUCKETS) {
+            if (bucket <= width) {
+                continue;
+            }
+            final String largerKey = getDiskKey(imagePath, bucket, bucket);
+            if (!isThumbnailOnDisk(context, largerKey, bucket, bucket)) {
+                continue;
+            }
+            final Bitmap larger = loadThumbnailFromDisk(context, largerKey, bucket, bucket, pool, signal);
+            if (larger != null) {
+                final Bitmap thumbnail = downscaleThumbnail(larger, width, height, pool);
+                pool.put(larger);
+                return thumbnail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     *  Saves a freshly generated thumbnail to whichever disk store is in use
+     *
+     *  @param isMeasured       true to record the write in {@link PipelineMetrics}
+     */
+    static void saveThumbnailToDisk(Context context, String diskKey, int width, int height,
+                                    final Bitmap thumbnail, boolean isMeasured) throws IOException {
+        final long startTime = startStage(isMeasured);
+        if (usePackedStore) {
+            final PackedThumbnailStore packedStore = getPackedStore(context, width, height);
+            //  Slots hold pixels of the decode config only, a thumbnail made before the
+            //  config changed would not fit
+            if (packedStore != null && thumbnail.getConfig() == getDecodeConfig()) {
+                writePackedThumbnail(packedStore, diskKey, thumbnail);
+                PipelineMetrics.record(PipelineMetrics.STAGE_DISK_WRITE, startTime);
+            }
+            return;
+        }
+
+        final DiskThumbnailCache diskCache = getDiskCache(context);
+        if (diskCache != null) {
+            diskCache.put(diskKey, new DiskThumbnailCache.EntryWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, 97, out)) {
+                        throw new IOException("Unable to compress thumbnail");
+                    }
+                }
+            });
+            PipelineMetrics.record(PipelineMetrics.STAGE_DISK_WRITE, startTime);
+        }
+    }
+
+    /**
+     *  Writes the buffered journal and index lines and the mapped pixels of the disk
+     *  stores that are open. Does disk I/O, so must not be called on the UI thread.
+     */
+    static void flushDiskStores() {
+        synchronized (diskCacheLock) {
+            if (diskCache != null) {
+                diskCache.flush();
+            }
+            for (PackedThumbnailStore store : packedStores.values()) {
+                if (store == null) {
+                    continue;
+                }
+                try {
+                    store.flush();
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to flush a packed thumbnail store", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  ********************************************************************************
+     *  ********************************************************************************
+     *
+     *          MEDIASTORE REQUEST
+     *
+     *  ********************************************************************************
+     *  ********************************************************************************
+     */
+
+    /**
+     *  Queries the MediaStore for images, most recent first. Does disk I/O, so must not
+     *  be called on the UI thread.
+     *
+     *  @param context          a context, used to reach the content resolver
+     *  @param selection        an optional SQL WHERE clause, or null for every image
+     *  @param selectionArgs    values for the ? placeholders in the selection
+     *  @return                 a cursor over _ID, DATA, DATE_ADDED and ORIENTATION that
+     *                          the caller must close, or null if the query failed
+     */
+    public static Cursor queryImages(Context context, String selection, String[] selectionArgs) {
         final String[] columns = {
                 MediaStore.Images.Media._ID,
                 MediaStore.Images.Media.DATA,
@@ -257,26 +914,60 @@ public class Utils {
         final String orderBy = MediaStore.Images.Media.DATE_ADDED + " DESC";
 
         //  Stores all the images from the gallery in Cursor
-        Cursor cursor = context.getContentResolver().query(
+        return context.getContentResolver().query(
                 MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
                 columns,
-                null,
-                null,
+                selection,
+                selectionArgs,
                 orderBy);
+    }
+
+    /**
+     *  Loads the micro thumbnail the MediaStore keeps for an image, turned upright.
+     *  It is far cheaper than decoding the original but small and heavily compressed,
+     *  so it is only shown until the real thumbnail is ready. Does disk I/O, so must
+     *  not be called on the UI thread.
+     *
+     *  @param context          a context, used to reach the content resolver
+     *  @param imageId          MediaStore _ID of the image
+     *  @param imagePath        file path of the image, for its EXIF orientation
+     *  @return                 the preview, or null if the MediaStore has none
+     */
+    static Bitmap loadMediaStorePreview(Context context, long imageId, String imagePath) {
+        final Bitmap micro = MediaStore.Images.Thumbnails.getThumbnail(
+                context.getContentResolver(), imageId, MediaStore.Images.Thumbnails.MICRO_KIND, null);
+        if (micro == null) {
+            return null;
+        }
+        //  Micro thumbnails are stored as the sensor captured them
+        final int rotation = getExifRotation(imagePath);
+        if (rotation == 0) {
+            return micro;
+        }
+        final Matrix matrix = new Matrix();
+        matrix.setRotate(rotation);
+        return Bitmap.createBitmap(micro, 0, 0, micro.getWidth(), micro.getHeight(), matrix, true);
+    }
+
+    //  MediaStore Images Query, returns the file path of every image, most recent first
+    public static String[] getImagePaths(Context context)
+    {
+        Cursor cursor = queryImages(context, null, null);
+        if (cursor == null) {
+            return new String[0];
+        }
 
         //  Total number of images
         int count = cursor.getCount();
 
         //  Create an array to store path to all the images
-        String[] arrPath = new String[count];
         String[] paths = new String[count];
+        int dataColumnIndex = cursor.getColumnIndex(MediaStore.Images.Media.DATA);
 
         for (int i = 0; i < count; i++) {
             cursor.moveToPosition(i);
-            int dataColumnIndex = cursor.getColumnIndex(MediaStore.Images.Media.DATA);
 
             //Store the path of the image
-            arrPath[i]= cursor.getString(dataColumnIndex);
             paths[i]= cursor.getString(dataColumnIndex);
         }
         cursor.close();
@@ -299,116 +990,346 @@ public class Utils {
      *  off the UI thread. This performs the task of loading a smaller version of the
      *  image into {@link ImageView}
      */                                                             // START BitmapWorkerTask()
-    public static class BitmapWorkerTask extends AsyncTask<String, Void, Bitmap>{
-        private final WeakReference<ImageView> imageViewReference;
+    public static class BitmapWorkerTask extends AsyncTask<String, Bitmap, RecyclingBitmapDrawable>
+            implements DecodeScheduler.Speculative {
+        //  Every ImageView waiting for this thumbnail, more than one when requests coalesce
+        private final ArrayList<WeakReference<ImageView>> imageViewReferences = new ArrayList<>();
+        private final long aKey;
+        //  MediaStore _ID of the image, to find its MediaStore preview
+        private final long aImageId;
+        //  A prefetch has no cell to show a preview in
+        private final boolean aShowPreview;
+        private final Resources aResources;
+        private final BitmapPool aBitmapPool;
+        private final Context aContext;
         private int aWidth, aHeight;
-        private File aCachedImageFile;
+        //  Whether the result went into the memory cache, in which case it must not be pooled
+        private volatile boolean aResultCached;
+        //  Forwards cancellation into the decode that is running on the worker thread
+        private final CancellationSignal aCancellationSignal = new CancellationSignal();
+        //  A cached thumbnail of the same image in a larger size, held displayed until scaled
+        private RecyclingBitmapDrawable aScaleSource;
+        //  When the task was handed to the executor, see {@link PipelineMetrics#start()}
+        private long aStartTime;
+        private String aImagePath;
+        //  Set when the task gave up its thread because full decodes were paused
+        private volatile boolean aDeferred;
 
         //  Constructor
-        public BitmapWorkerTask(ImageView imageView, int nWidth, int nHeight, File cachedImageFile) {
+        public BitmapWorkerTask(ImageView imageView, long key, long imageId, int nWidth,
+                                int nHeight, Context context, BitmapPool bitmapPool) {
             //  The WeakReference to the ImageView ensures that the AsyncTask does not prevent the
             //  {@link ImageView} and anything it references from being garbage collected.
-            imageViewReference = new WeakReference<>(imageView);
-            Log.v(TAG, "Creating BitmapWorkerTask Object");
+            //  A prefetch has no view yet, cells attach to it once they are bound.
+            if (imageView != null) {
+                imageViewReferences.add(new WeakReference<>(imageView));
+            }
+            if (LOG_BIND) {
+                Log.v(TAG, "Creating BitmapWorkerTask Object");
+            }
+            aKey = key;
+            aImageId = imageId;
+            aShowPreview = imageView != null;
+            aResources = context.getResources();
+            aBitmapPool = bitmapPool;
             aWidth = nWidth;
             aHeight = nHeight;
-            aCachedImageFile = cachedImageFile;
+            aContext = context.getApplicationContext();
         }   //  END OF BitmapWorkerTask() constructor
 
+        /**
+         *  Attaches another {@link ImageView} to this task, so that it receives the same
+         *  thumbnail instead of starting a duplicate decode. Must be called on the UI thread.
+         */
+        public void attach(ImageView imageView) {
+            imageViewReferences.add(new WeakReference<>(imageView));
+        }
+
+        /**
+         *  Detaches an {@link ImageView} that has been recycled for another image.
+         *  Must be called on the UI thread.
+         *
+         *  @return             true if no other live ImageView is waiting for this task
+         */
+        public boolean detach(ImageView imageView) {
+            for (int i = imageViewReferences.size() - 1; i >= 0; i--) {
+                final ImageView attached = imageViewReferences.get(i).get();
+                if (attached == null || attached == imageView) {
+                    imageViewReferences.remove(i);
+                }
+            }
+            return imageViewReferences.isEmpty();
+        }
+
+        /**
+         *  Cancels the task and aborts any decode it is running. Unlike
+         *  {@link #cancel(boolean)} this reaches into BitmapFactory, so a large decode
+         *  stops part way through instead of running to completion.
+         */
+        public void cancelWork() {
+            cancel(false);
+            aCancellationSignal.cancel();
+        }
+
+        /**
+         *  Starts the load again for the views still waiting for this deferred task, or
+         *  hands them a thumbnail that has been cached meanwhile. Must be called on the
+         *  UI thread.
+         */
+        void reissue() {
+            final RecyclingBitmapDrawable cached = getMemoryCache(aContext).get(aKey);
+            BitmapWorkerTask task = cached == null ? inFlightTasks.get(aKey) : null;
+            boolean isNewTask = false;
+            for (WeakReference<ImageView> imageViewReference : imageViewReferences) {
+                final ImageView imageView = imageViewReference.get();
+                if (imageView == null || this != getBitmapWorkerTask(imageView)) {
+                    //  Gone, or bound to another image during the fling
+                    continue;
+                }
+                if (cached != null) {
+                    imageView.setImageDrawable(cached);
+                    PipelineMetrics.thumbnailShown();
+                    continue;
+                }
+                if (task == null) {
+                    task = new BitmapWorkerTask(imageView, aKey, aImageId, aWidth, aHeight,
+                            aContext, aBitmapPool);
+                    inFlightTasks.put(aKey, task);
+                    isNewTask = true;
+                } else {
+                    task.attach(imageView);
+                }
+                //  Keeps the preview or color the view is showing
+                ((AsyncDrawable) imageView.getDrawable()).setBitmapWorkerTask(task);
+            }
+            imageViewReferences.clear();
+            if (isNewTask) {
+                task.start(aImagePath);
+            }
+        }
+
+        /**
+         *  A prefetch no cell has attached to yet is the first to go from a full queue
+         */
+        @Override
+        public boolean isSpeculative() {
+            return imageViewReferences.isEmpty();
+        }
+
+        /**
+         *  Queues the task on the parallel LIFO decode executor, not AsyncTask's serial
+         *  one. Must be called on the UI thread.
+         */
+        void start(String imagePath) {
+            aImagePath = imagePath;
+            aStartTime = PipelineMetrics.start();
+            PipelineMetrics.taskStarted();
+            DecodeScheduler.execute(this, imagePath);
+        }
+
+        public long getKey() {
+            return aKey;
+        }
+
+        /**
+         *  Gives the task a larger cached thumbnail to scale down instead of decoding the
+         *  original. The task holds it displayed, so it cannot go back to the pool while
+         *  it is read. Must be called on the UI thread before the task is executed.
+         */
+        void setScaleSource(RecyclingBitmapDrawable scaleSource) {
+            if (scaleSource != null) {
+                scaleSource.setIsDisplayed(true);
+            }
+            aScaleSource = scaleSource;
+        }
+
+        private void releaseScaleSource() {
+            if (aScaleSource != null) {
+                aScaleSource.setIsDisplayed(false);
+                aScaleSource = null;
+            }
+        }
+
         //  Decoding the Image in the Background Thread
         @Override
-        protected Bitmap doInBackground(String... params) { // START doInBackground()
+        protected RecyclingBitmapDrawable doInBackground(String... params) { // START doInBackground()
+            PipelineMetrics.record(PipelineMetrics.STAGE_QUEUE_WAIT, aStartTime);
             try {
                 String imageFilePath = params[0];
-                Bitmap imageFile;
-
-                if (aCachedImageFile != null && aCachedImageFile.exists()){
-                    Log.v(TAG, "Loading a Cached Bitmap File " + aCachedImageFile.getPath());
-                    long startTime = android.os.SystemClock.uptimeMillis();
-                    imageFile = BitmapFactory.decodeFile(aCachedImageFile.getAbsolutePath());
-                    long endTime = android.os.SystemClock.uptimeMillis();
-                    Log.v(TAG, "Finished Loading Cached Bitmap File " + aCachedImageFile.getPath()
-                            + ", in " + (endTime - startTime) + "ms");
-                } else {
-                    imageFile = Utils.decodeIncomingImage(imageFilePath, aWidth, aHeight);
-
-                    //  Save this Thumbnail to disk, so no sampling is run on it again.
-                    FileOutputStream outFile = null;
-                    try {
-                        outFile = new FileOutputStream(aCachedImageFile);
-                        imageFile.compress(Bitmap.CompressFormat.JPEG, 97, outFile);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        try {
-                            if (outFile != null) {
-                                outFile.close();
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                Bitmap imageFile = null;
+                //  Set once the thumbnail is freshly made and still has to go to disk
+                boolean isDiskWriteNeeded = false;
+
+                final String diskKey = getDiskKey(imageFilePath, aWidth, aHeight);
+                imageFile = loadThumbnailFromDisk(aContext, diskKey, aWidth, aHeight,
+                        aBitmapPool, aCancellationSignal);
+                PipelineMetrics.recordDiskLookup(imageFile != null);
+
+                //  Next best, scale down a larger thumbnail from memory or disk
+                if (imageFile == null) {
+                    if (aScaleSource != null) {
+                        imageFile = downscaleThumbnail(aScaleSource.getBitmap(), aWidth,
+                                aHeight, aBitmapPool);
+                    } else {
+                        imageFile = loadLargerThumbnailFromDisk(aContext, imageFilePath,
+                                aWidth, aHeight, aBitmapPool, aCancellationSignal);
+                    }
+                    isDiskWriteNeeded = imageFile != null;
+                }
+                releaseScaleSource();
+
+                if (imageFile == null) {
+                    //  Show the MediaStore's own small thumbnail until ours is decoded
+                    if (aShowPreview) {
+                        final Bitmap preview = loadMediaStorePreview(aContext, aImageId, imageFilePath);
+                        if (preview != null && !isCancelled()) {
+                            publishProgress(preview);
                         }
                     }
+                    //  Hold back full decodes while the grid is flinging, and give the
+                    //  thread back to the disk hits queued behind this task
+                    if (DecodeScheduler.isFullDecodePaused()) {
+                        aDeferred = true;
+                        return null;
+                    }
+                    imageFile = Utils.decodeIncomingImage(imageFilePath, aWidth, aHeight,
+                            aBitmapPool, aCancellationSignal, true);
+                    if (imageFile == null || isCancelled()) {
+                        //  Nobody will see this thumbnail, skip the disk write
+                        aBitmapPool.put(imageFile);
+                        return null;
+                    }
+
+                    isDiskWriteNeeded = true;
                 }
-                addToCache(new TrimmedBitmapData(imageFilePath, aWidth, aHeight), imageFile);
-                return imageFile;
+                if (imageFile == null) {
+                    return null;
+                }
+                //  A fresh thumbnail may be of an edited image, so its color is taken again
+                if (isDiskWriteNeeded
+                        || placeholderColors.get(aImageId) == PlaceholderColors.NO_COLOR) {
+                    placeholderColors.put(aImageId, samplePlaceholderColor(imageFile));
+                }
+                //  The disk stores need the software Bitmap, so it is kept if the
+                //  displayed one is a HARDWARE copy
+                final Bitmap software = imageFile;
+                imageFile = isDiskWriteNeeded ? toThumbnailConfig(imageFile)
+                        : toThumbnailConfig(imageFile, aBitmapPool);
+                RecyclingBitmapDrawable drawable =
+                        new RecyclingBitmapDrawable(aResources, imageFile, aBitmapPool);
+                if (isCancelled()) {
+                    //  Nobody will see this thumbnail, skip the disk write
+                    if (software != imageFile) {
+                        aBitmapPool.put(software);
+                    }
+                    return drawable;
+                }
+                final RecyclingBitmapDrawable cached = addToCache(aKey, drawable);
+                aResultCached = true;
+                if (cached != drawable) {
+                    //  Another worker cached this thumbnail first, use its copy. It
+                    //  queued the same disk write, so skip this one.
+                    aBitmapPool.put(imageFile);
+                    if (software != imageFile) {
+                        aBitmapPool.put(software);
+                    }
+                } else if (isDiskWriteNeeded) {
+                    //  Save this Thumbnail to disk once it is shown, so no sampling is
+                    //  run on it again
+                    getDiskWriteQueue(aContext).enqueue(diskKey, aWidth, aHeight, software,
+                            software == imageFile ? drawable : null);
+                }
+                return cached;
             }catch(Exception e) {
                 Log.e(TAG, e.toString());
                 return null;
+            } finally {
+                releaseScaleSource();
             }
         }   //  END OF doInBackground() method
 
-        //  Check if {@link ImageView} still exists once process is complete to insert Bitmap
+        //  Shows the preview in place of the placeholder. It stays an AsyncDrawable, so the
+        //  view is still bound to this task and gets the real thumbnail in onPostExecute.
         @Override
-        protected void onPostExecute(Bitmap bitmap) {       // START onPostExecute()
-            if (isCancelled()) {
-                Log.d(TAG, "BitmapWorkerTask was Canceled");
-                bitmap.recycle();
-                bitmap = null;
+        protected void onProgressUpdate(Bitmap... preview) {
+            for (WeakReference<ImageView> imageViewReference : imageViewReferences) {
+                final ImageView imageView = imageViewReference.get();
+                if (imageView != null && this == getBitmapWorkerTask(imageView)) {
+                    imageView.setImageDrawable(new AsyncDrawable(aResources, preview[0], this));
+                }
             }
+        }
 
-            if (imageViewReference != null && bitmap != null) {
-                final ImageView imageView = imageViewReference.get();
-                final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
-                if (this == bitmapWorkerTask && imageView != null) {
-                    imageView.setImageBitmap(bitmap);
+        //  Check if {@link ImageView} still exists once process is complete to insert Bitmap
+        @Override
+        protected void onPostExecute(RecyclingBitmapDrawable drawable) {       // START onPostExecute()
+            removeInFlightTask(aKey, this);
+            if (aDeferred) {
+                //  The views keep showing the placeholder, and stay attached until the
+                //  load is issued again. A prefetch is simply dropped.
+                PipelineMetrics.taskDeferred();
+                if (!DecodeScheduler.isFullDecodePaused()) {
+                    //  Decodes resumed while this task was finishing
+                    reissue();
+                } else if (!imageViewReferences.isEmpty()) {
+                    deferredTasks.add(this);
+                }
+                return;
+            }
+            PipelineMetrics.taskFinished(false);
+            if (drawable != null) {
+                PipelineMetrics.record(PipelineMetrics.STAGE_TOTAL, aStartTime);
+                for (WeakReference<ImageView> imageViewReference : imageViewReferences) {
+                    final ImageView imageView = imageViewReference.get();
+                    final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
+                    if (this == bitmapWorkerTask && imageView != null) {
+                        imageView.setImageDrawable(drawable);
+                        PipelineMetrics.thumbnailShown();
+                    }
                 }
             }
+            imageViewReferences.clear();
         }   //  END OF onPostExecute()
+
+        //  A cancelled result that was never cached or displayed can have its Bitmap reused
+        @Override
+        protected void onCancelled(RecyclingBitmapDrawable drawable) {
+            PipelineMetrics.taskFinished(true);
+            //  Still set if the task was dropped from the queue before it ran
+            releaseScaleSource();
+            removeInFlightTask(aKey, this);
+            imageViewReferences.clear();
+            if (drawable != null && !aResultCached) {
+                aBitmapPool.put(drawable.getBitmap());
+            }
+        }
     }   //  END OF BitmapWorkTask (Async Task)
 
 
     /**
-     *  This methods adds an Image Thumbnail to the Cache
+     *  This methods adds an Image Thumbnail to the Cache, unless another worker has
+     *  already cached one for the same key. Safe to call from any thread.
+     *
+     *  @param key          cache key of the thumbnail, see {@link ImageEntry#cacheKeyFor(long, int, int)}
+     *  @param drawable     the drawable wrapping the resulting bitmap that is added to the cache
      *
-     *  @param data         data about the Thumbnail such as name of the image file;
-     *                      dimensions of the thumbnail
-     *  @param bitmap       the resulting bitmap that is added to the cache
+     *  @return             the drawable now in the cache, which is either the given one
+     *                      or the one that was cached first
      */
-    public static void addToCache(TrimmedBitmapData data, Bitmap bitmap) {
-        if(bitmapLruCache.get(data.toString()) == null) {
+    public static RecyclingBitmapDrawable addToCache(long key, RecyclingBitmapDrawable drawable) {
+        if (LOG_BIND) {
             Log.v(TAG, "Adding bitmap to cache");
-            bitmapLruCache.put(data.toString(), bitmap);
         }
+        return bitmapLruCache.putIfAbsent(key, drawable);
     }
 
     /**
-     *  Custom class that contains parameters used to generate a
-     *  smaller Bitmap from a larger image.
+     *  Removes a finished or cancelled task from the in-flight map, unless a newer task
+     *  has already taken its place. Must be called on the UI thread.
      */
-    public static class TrimmedBitmapData {
-        public String imageFilePath;
-        public int sWidth;
-        public int sHeight;
-
-        public TrimmedBitmapData(String filepath, int width, int height) {
-            this.imageFilePath = filepath;
-            this.sWidth = width;
-            this.sHeight = height;
-        }
-
-        @Override
-        public String toString() {
-            return imageFilePath + " " + sWidth + " " + sHeight;
+    private static void removeInFlightTask(long key, BitmapWorkerTask task) {
+        if (inFlightTasks.get(key) == task) {
+            inFlightTasks.remove(key);
         }
     }
 
@@ -435,16 +1356,49 @@ public class Utils {
      *
      */
     static class AsyncDrawable extends BitmapDrawable {
-        private final WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
+        //  Fills a color placeholder, only drawn on the UI thread
+        private static final Paint COLOR_PAINT = new Paint();
+
+        private WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
+        private final int placeholderColor;
 
         public AsyncDrawable(Resources res, Bitmap bitmap, BitmapWorkerTask bitmapWorkerTask) {
             super(res, bitmap);
             bitmapWorkerTaskReference = new WeakReference<>(bitmapWorkerTask);
+            placeholderColor = PlaceholderColors.NO_COLOR;
+        }
+
+        /**
+         *  Creates a placeholder that fills the view with one color, the image's
+         *  average from {@link PlaceholderColors}
+         */
+        public AsyncDrawable(Resources res, int placeholderColor, BitmapWorkerTask bitmapWorkerTask) {
+            super(res, (Bitmap) null);
+            bitmapWorkerTaskReference = new WeakReference<>(bitmapWorkerTask);
+            this.placeholderColor = placeholderColor;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            if (getBitmap() == null && placeholderColor != PlaceholderColors.NO_COLOR) {
+                COLOR_PAINT.setColor(placeholderColor);
+                canvas.drawRect(getBounds(), COLOR_PAINT);
+                return;
+            }
+            super.draw(canvas);
         }
 
         public BitmapWorkerTask getBitmapWorkerTask() {
             return bitmapWorkerTaskReference.get();
         }
+
+        /**
+         *  Hands the view over to the task that loads its thumbnail in place of a
+         *  deferred one
+         */
+        void setBitmapWorkerTask(BitmapWorkerTask bitmapWorkerTask) {
+            bitmapWorkerTaskReference = new WeakReference<>(bitmapWorkerTask);
+        }
     }
 
     /**
@@ -468,44 +1422,239 @@ public class Utils {
     }
 
 
+    /**
+     *  Called when an {@link ImageView} is bound to an image. If the view is still
+     *  waiting for a different thumbnail, it is detached from that task, and the task
+     *  is cancelled when no other view is waiting for it.
+     *
+     *  @param key                  cache key of the thumbnail the view now needs
+     *  @param imageView            the (possibly recycled) view being bound
+     *
+     *  @return                     false if the view is already waiting for this
+     *                              thumbnail, so no new work is needed
+     */
+    private static boolean cancelPotentialWork(long key, ImageView imageView) {
+        final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
+        if (bitmapWorkerTask == null || bitmapWorkerTask.getStatus() == AsyncTask.Status.FINISHED) {
+            return true;
+        }
+        if (bitmapWorkerTask.getKey() == key && !bitmapWorkerTask.isCancelled()) {
+            return false;
+        }
+        detachFromTask(bitmapWorkerTask, imageView);
+        return true;
+    }
+
+    /**
+     *  Stops the view waiting for the task, cancelling the task if no other view needs it
+     */
+    private static void detachFromTask(BitmapWorkerTask bitmapWorkerTask, ImageView imageView) {
+        if (bitmapWorkerTask.detach(imageView)) {
+            if (LOG_BIND) {
+                Log.v(TAG, "Cancelling the stale load of " + bitmapWorkerTask.getKey());
+            }
+            bitmapWorkerTask.cancelWork();
+            //  Drop it now, so no new request can attach to the cancelled task
+            removeInFlightTask(bitmapWorkerTask.getKey(), bitmapWorkerTask);
+            //  Free its slot in the bounded decode queue if it had not started yet
+            DecodeScheduler.purge();
+        }
+    }
+
+    /**
+     *  Releases a view that has scrolled out of the grid: cancels its pending load if no
+     *  other view needs it, and drops its drawable so the bitmap can return to the pool
+     *  once it is neither cached nor shown anywhere else
+     *
+     *  @param imageView            the recycled view
+     */
+    public static void releaseView(ImageView imageView) {
+        final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
+        if (bitmapWorkerTask != null && bitmapWorkerTask.getStatus() != AsyncTask.Status.FINISHED) {
+            detachFromTask(bitmapWorkerTask, imageView);
+        }
+        imageView.setImageDrawable(null);
+    }
+
+
+    /**
+     *  Finds a thumbnail of the same image in a larger size bucket in the memory cache.
+     *  Only square thumbnails are looked up.
+     *
+     *  @return                     the smallest larger thumbnail, or null if none is cached
+     */
+    private static RecyclingBitmapDrawable findLargerInMemoryCache(Context context, long imageId,
+                                                                   int width, int height) {
+        if (width != height) {
+            return null;
+        }
+        for (int bucket : ThumbnailSizing.SIZE_BUCKETS) {
+            if (bucket > width) {
+                final RecyclingBitmapDrawable larger = getMemoryCache(context).get(
+                        ImageEntry.cacheKeyFor(imageId, bucket, bucket));
+                //  A HARDWARE bitmap cannot be drawn onto a software canvas
+                if (larger != null && !isHardwareConfig(larger.getBitmap().getConfig())) {
+                    return larger;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     *  Pauses or resumes full decodes of original images, see
+     *  {@link DecodeScheduler#setFullDecodesPaused(boolean)}. On resume the loads that
+     *  were put off are issued again for the cells still showing them. Must be called
+     *  on the UI thread.
+     *
+     *  @param paused               true while the grid is flinging too fast to decode for
+     */
+    public static void setFullDecodesPaused(boolean paused) {
+        DecodeScheduler.setFullDecodesPaused(paused);
+        if (!paused && !deferredTasks.isEmpty()) {
+            //  Queued oldest first, so the LIFO queue decodes the latest cells first
+            for (int i = 0; i < deferredTasks.size(); i++) {
+                deferredTasks.get(i).reissue();
+            }
+            deferredTasks.clear();
+        }
+    }
+
+    /**
+     *  Checks the memory cache without loading anything
+     *
+     *  @param key                  see {@link ImageEntry#cacheKeyFor(long, int, int)}
+     */
+    public static boolean isInMemoryCache(Context context, long key) {
+        return getMemoryCache(context).containsKey(key);
+    }
+
+    /**
+     *  Loads a thumbnail into the memory cache before any cell shows it. A cell bound
+     *  while the load is running attaches to it like to any other in-flight load.
+     *  Must be called on the UI thread.
+     *
+     *  @param image                the image to load
+     *  @param width                desired width of the thumbnail
+     *  @param height               desired height of the thumbnail
+     *  @param context              a context, used to size the caches
+     *  @return                     true if a load was started, false if the thumbnail
+     *                              is already cached or being loaded
+     */
+    public static boolean prefetchBitmap(ImageEntry image, int width, int height,
+                                         Context context) {
+        final long key = image.getCacheKey(width, height);
+        if (inFlightTasks.get(key) != null || getMemoryCache(context).containsKey(key)) {
+            return false;
+        }
+        final BitmapWorkerTask task = new BitmapWorkerTask(null, key, image.id, width, height,
+                context, getBitmapPool(context));
+        inFlightTasks.put(key, task);
+        task.start(image.path);
+        return true;
+    }
+
+    /**
+     *  @return                     the average colors of the images, shown while their
+     *                              thumbnails load
+     */
+    public static PlaceholderColors getPlaceholderColors() {
+        return placeholderColors;
+    }
+
+    /**
+     *  Averages a grid of pixels of a thumbnail into its placeholder color. Reads
+     *  {@link PlaceholderColors#SAMPLES_PER_SIDE} squared pixels, no decode involved.
+     *
+     *  @param thumbnail            a software Bitmap, HARDWARE pixels can not be read
+     *  @return                     the average color of the thumbnail
+     */
+    static int samplePlaceholderColor(Bitmap thumbnail) {
+        final int samples = PlaceholderColors.SAMPLES_PER_SIDE;
+        final int width = thumbnail.getWidth();
+        final int height = thumbnail.getHeight();
+        final int[] pixels = new int[samples * samples];
+        int count = 0;
+        for (int row = 0; row < samples; row++) {
+            //  The centers of a samples x samples grid of cells
+            final int y = (2 * row + 1) * height / (2 * samples);
+            for (int column = 0; column < samples; column++) {
+                pixels[count++] = thumbnail.getPixel((2 * column + 1) * width / (2 * samples), y);
+            }
+        }
+        return PlaceholderColors.averageColor(pixels, count);
+    }
+
+    /**
+     *  @return                     the shared placeholder Bitmap, decoded on first use
+     */
+    private static Bitmap getPlaceholderBitmap(Resources resources) {
+        if (placeholderBitmap == null) {
+            placeholderBitmap = BitmapFactory.decodeResource(resources, R.drawable.loading_thumbnail_2);
+        }
+        return placeholderBitmap;
+    }
+
+
     /**
      *  This is the primary execution method that asynchronously
-     *  loads a thumbnail of the given image into the given view
+     *  loads a thumbnail of the given image into the given view. On a memory cache hit
+     *  nothing is allocated, as this runs for every cell bound while scrolling.
      *
      *  @param imageView            the ImageView to load the bitmap into
-     *  @param imageFilePath        filepath of the (full-size) image to load
+     *  @param image                the image to load, which also holds its cache key
      *  @param width                desired width of the thumbnail
      *  @param height               desired height of the thumbnail
-     *  @param context              a context, used to retrieve the path where we're
-     *                              caching thumbnails on disk.
-     */
-    public static void loadBitmap(ImageView imageView, String imageFilePath, int width,
-                                  int height, Context context) {
-        TrimmedBitmapData data = new TrimmedBitmapData(imageFilePath, width, height);
-        Log.v(TAG, "Loading Bitmap " + data.toString());
-
-        Bitmap bitmap = bitmapLruCache.get(data.toString());
-        if(bitmap != null) {
-            Log.v(TAG, "The Bitmap already exists");
-            imageView.setImageBitmap(bitmap);
-        } else {
-            Log.v(TAG, "Need to find or create a bitmap");
-            /// Find (or create) the file containing the cached version of
-            /// this image at the right size --> new File(File object, String object)
-            File cachedImageFile = new File(context.getExternalCacheDir(),
-                    data.toString());
-            cachedImageFile.getParentFile().mkdir();
+     *  @param context              a context, used to size the caches and to retrieve
+     *                              the path where we're caching thumbnails on disk.
+     */
+    public static void loadBitmap(ImageView imageView, ImageEntry image, int width, int height,
+                                  Context context) {
+        final long key = image.getCacheKey(width, height);
+        if (LOG_BIND) {
+            Log.v(TAG, "Loading Bitmap " + key);
+        }
 
-            Utils.BitmapWorkerTask task = new Utils.BitmapWorkerTask(imageView,
-                    width, height, cachedImageFile);
+        //  A recycled view may still be waiting for the image it showed before
+        if (!cancelPotentialWork(key, imageView)) {
+            if (LOG_BIND) {
+                Log.v(TAG, "Already loading " + key);
+            }
+            return;
+        }
 
-            Bitmap placeholderBitmap = BitmapFactory.decodeResource(context.getResources(),
-                    R.drawable.loading_thumbnail_2);
+        RecyclingBitmapDrawable drawable = getMemoryCache(context).get(key);
+        PipelineMetrics.recordMemoryLookup(drawable != null);
+        if(drawable != null) {
+            imageView.setImageDrawable(drawable);
+            PipelineMetrics.thumbnailShown();
+        } else {
+            if (LOG_BIND) {
+                Log.v(TAG, "Need to find or create a bitmap for " + key);
+            }
+            //  Single-flight: if this thumbnail is already being loaded, wait for that task
+            Utils.BitmapWorkerTask task = inFlightTasks.get(key);
+            final boolean isNewTask = task == null;
+            if (isNewTask) {
+                task = new Utils.BitmapWorkerTask(imageView, key,
+                        image.id, width, height, context, getBitmapPool(context));
+                inFlightTasks.put(key, task);
+            } else {
+                task.attach(imageView);
+            }
 
-            final AsyncDrawable asyncDrawable = new AsyncDrawable(context.getResources(),
-                    placeholderBitmap, task);
+            //  The image's own color if its thumbnail was ever made, so a fast scroll
+            //  looks populated
+            final int placeholderColor = placeholderColors.get(image.id);
+            final AsyncDrawable asyncDrawable = placeholderColor != PlaceholderColors.NO_COLOR
+                    ? new AsyncDrawable(context.getResources(), placeholderColor, task)
+                    : new AsyncDrawable(context.getResources(),
+                            getPlaceholderBitmap(context.getResources()), task);
             imageView.setImageDrawable(asyncDrawable);
-            task.execute(imageFilePath);
+            if (isNewTask) {
+                task.setScaleSource(findLargerInMemoryCache(context, image.id, width, height));
+                task.start(image.path);
+            }
         }
     }
 
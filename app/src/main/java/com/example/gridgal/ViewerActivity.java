@@ -0,0 +1,38 @@
+package com.example.gridgal;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+
+/**
+ *  Shows one image of the grid full screen, at full detail when zoomed in.
+ */
+public class ViewerActivity extends AppCompatActivity {
+
+    //  File path of the image to show
+    static final String EXTRA_IMAGE_PATH = "com.example.gridgal.IMAGE_PATH";
+    //  Memory cache key of the grid's thumbnail of the image, shown while it loads
+    static final String EXTRA_THUMBNAIL_KEY = "com.example.gridgal.THUMBNAIL_KEY";
+
+    /**
+     *  @param context          the Context to start the viewer from
+     *  @param entry            the image to show
+     *  @param thumbnailSize    size of the grid's thumbnails, to find the image's one
+     *  @return                 the Intent that starts the viewer on the image
+     */
+    static Intent newIntent(Context context, ImageEntry entry, int thumbnailSize) {
+        return new Intent(context, ViewerActivity.class)
+                .putExtra(EXTRA_IMAGE_PATH, entry.path)
+                .putExtra(EXTRA_THUMBNAIL_KEY, entry.getCacheKey(thumbnailSize, thumbnailSize));
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_viewer);
+        final TiledImageView imageView = (TiledImageView) findViewById(R.id.tiled_image);
+        imageView.setImage(getIntent().getStringExtra(EXTRA_IMAGE_PATH),
+                getIntent().getLongExtra(EXTRA_THUMBNAIL_KEY, 0));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DecodeQueue}.
+ */
+public class DecodeQueueTest {
+
+    @Test
+    public void poll_returnsTheNewestFirst() {
+        DecodeQueue queue = new DecodeQueue(4);
+        FakeEntry first = new FakeEntry(false);
+        FakeEntry second = new FakeEntry(false);
+        queue.offer(first);
+        queue.offer(second);
+
+        assertSame(second, queue.poll());
+        assertSame(first, queue.poll());
+    }
+
+    @Test
+    public void offer_whenFull_dropsTheOldestThroughTheEntry() {
+        DecodeQueue queue = new DecodeQueue(3);
+        FakeEntry oldest = new FakeEntry(false);
+        queue.offer(oldest);
+        queue.offer(new FakeEntry(false));
+        queue.offer(new FakeEntry(false));
+
+        FakeEntry newest = new FakeEntry(false);
+        assertTrue(queue.offer(newest));
+
+        assertTrue(oldest.isDropped);
+        assertFalse(queue.contains(oldest));
+        assertSame(newest, queue.peek());
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.getDropCount());
+    }
+
+    @Test
+    public void offer_whenFull_dropsASpeculativeEntryBeforeAnOlderOne() {
+        DecodeQueue queue = new DecodeQueue(3);
+        FakeEntry oldestBind = new FakeEntry(false);
+        FakeEntry prefetch = new FakeEntry(true);
+        queue.offer(oldestBind);
+        queue.offer(prefetch);
+        queue.offer(new FakeEntry(false));
+
+        queue.offer(new FakeEntry(false));
+
+        assertTrue(prefetch.isDropped);
+        assertFalse(oldestBind.isDropped);
+        assertTrue(queue.contains(oldestBind));
+    }
+
+    @Test
+    public void removeCancelled_freesTheirSlots() {
+        DecodeQueue queue = new DecodeQueue(3);
+        FakeEntry cancelled = new FakeEntry(false);
+        FakeEntry kept = new FakeEntry(false);
+        queue.offer(cancelled);
+        queue.offer(kept);
+        cancelled.isCancelled = true;
+
+        queue.removeCancelled();
+
+        assertEquals(1, queue.size());
+        assertSame(kept, queue.peek());
+        assertFalse(cancelled.isDropped);
+    }
+
+    private static class FakeEntry implements DecodeQueue.Entry {
+        final boolean isSpeculative;
+        boolean isCancelled;
+        boolean isDropped;
+
+        FakeEntry(boolean isSpeculative) {
+            this.isSpeculative = isSpeculative;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public boolean isSpeculative() {
+            return isSpeculative;
+        }
+
+        @Override
+        public void drop() {
+            isDropped = true;
+            isCancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.gridgal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DiskThumbnailCache}.
+ */
+public class DiskThumbnailCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_thenGet_returnsCommittedFile() throws Exception {
+        DiskThumbnailCache cache = DiskThumbnailCache.open(folder.getRoot(), 1024);
+        String key = DiskThumbnailCache.keyFor("/sdcard/DCIM/a.jpg", 1L, 2L, 100, 100);
+
+        assertTrue(cache.put(key, bytes(10)));
+
+        File file = cache.get(key);
+        assertNotNull(file);
+        assertEquals(10, file.length());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void keyFor_changesWithSourceModificationTimeAndSize() throws Exception {
+        String key = DiskThumbnailCache.keyFor("/sdcard/DCIM/a.jpg", 1L, 2L, 100, 100);
+
+        assertNotEquals(key, DiskThumbnailCache.keyFor("/sdcard/DCIM/a.jpg", 3L, 2L, 100, 100));
+        assertNotEquals(key, DiskThumbnailCache.keyFor("/sdcard/DCIM/a.jpg", 1L, 4L, 100, 100));
+        assertFalse(key.contains("/"));
+    }
+
+    @Test
+    public void put_overBudget_evictsLeastRecentlyUsed() throws Exception {
+        DiskThumbnailCache cache = DiskThumbnailCache.open(folder.getRoot(), 25);
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        cache.get("a");
+        cache.put("c", bytes(10));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    public void open_replaysJournalInLruOrder() throws Exception {
+        DiskThumbnailCache cache = DiskThumbnailCache.open(folder.getRoot(), 1024);
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(10));
+        cache.get("a");
+        cache.close();
+
+        DiskThumbnailCache reopened = DiskThumbnailCache.open(folder.getRoot(), 15);
+
+        assertEquals(1, reopened.entryCount());
+        assertNotNull(reopened.get("a"));
+        assertNull(reopened.get("b"));
+    }
+
+    @Test
+    public void open_discardsLeftoverTempAndUntrackedFiles() throws Exception {
+        DiskThumbnailCache cache = DiskThumbnailCache.open(folder.getRoot(), 1024);
+        cache.put("a", bytes(10));
+        cache.close();
+        writeFile(new File(folder.getRoot(), "b.1.tmp"), 5);
+        writeFile(new File(folder.getRoot(), "c"), 5);
+
+        DiskThumbnailCache reopened = DiskThumbnailCache.open(folder.getRoot(), 1024);
+
+        assertNotNull(reopened.get("a"));
+        assertNull(reopened.get("c"));
+        assertFalse(new File(folder.getRoot(), "b.1.tmp").exists());
+        assertFalse(new File(folder.getRoot(), "c").exists());
+    }
+
+    @Test
+    public void put_failedWrite_leavesNoEntry() throws Exception {
+        DiskThumbnailCache cache = DiskThumbnailCache.open(folder.getRoot(), 1024);
+
+        boolean committed = cache.put("a", new DiskThumbnailCache.EntryWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                out.write(new byte[5]);
+                throw new IOException("disk full");
+            }
+        });
+
+        assertFalse(committed);
+        assertNull(cache.get("a"));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private static DiskThumbnailCache.EntryWriter bytes(final int length) {
+        return new DiskThumbnailCache.EntryWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                out.write(new byte[length]);
+            }
+        };
+    }
+
+    private static void writeFile(File file, int length) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for {@link ImageEntry}.
+ */
+public class ImageEntryTest {
+
+    private static final int LOOKUPS = 10000;
+
+    @Test
+    public void cacheKeyFor_isUniquePerImageAndSize() {
+        long key = ImageEntry.cacheKeyFor(1234567L, 96, 128);
+
+        assertNotEquals(key, ImageEntry.cacheKeyFor(1234568L, 96, 128));
+        assertNotEquals(key, ImageEntry.cacheKeyFor(1234567L, 128, 96));
+        assertNotEquals(key, ImageEntry.cacheKeyFor(1234567L, 96, 96));
+        assertTrue(key > 0);
+    }
+
+    @Test
+    public void getCacheKey_matchesCacheKeyFor() {
+        ImageEntry entry = new ImageEntry(1, "/sdcard/DCIM/a.jpg", 2);
+
+        assertEquals(ImageEntry.cacheKeyFor(1, 96, 96), entry.getCacheKey(96, 96));
+    }
+
+    /**
+     * Covers only the key and the cache lookup; the whole bind path of
+     * {@link Utils#loadBitmap} is measured on a device by BindAllocationTest.
+     */
+    @Test
+    public void getCacheKeyThenLruGet_repeated_allocatesNothing() {
+        final com.sun.management.ThreadMXBean threads = allocationCountingThreadBean();
+        final long threadId = Thread.currentThread().getId();
+        ImageEntry entry = new ImageEntry(1, "/sdcard/DCIM/a.jpg", 2);
+        LongLruCache<String> cache = new LongLruCache<>(16);
+        cache.put(entry.getCacheKey(96, 96), "thumbnail");
+
+        //  Reading the counter can allocate itself, measure that first
+        long start = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        int hits = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (cache.get(entry.getCacheKey(96, 96)) != null) {
+                hits++;
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        assertEquals(LOOKUPS, hits);
+        assertTrue("Allocated " + allocated + " bytes in " + LOOKUPS + " lookups", allocated < LOOKUPS);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreadBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(counting.isThreadAllocatedMemorySupported());
+        counting.setThreadAllocatedMemoryEnabled(true);
+        return counting;
+    }
+}
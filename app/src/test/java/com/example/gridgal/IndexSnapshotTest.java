@@ -0,0 +1,158 @@
+package com.example.gridgal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link IndexSnapshot}.
+ */
+public class IndexSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_thenRead_returnsTheSameImagesInOrder() throws Exception {
+        File file = new File(folder.getRoot(), "index.snapshot");
+        List<ImageEntry> images = Arrays.asList(
+                new ImageEntry(300000L, "/storage/emulated/0/DCIM/Camera/IMG_0002.jpg", 1508000000L),
+                new ImageEntry(7L, "/storage/emulated/0/DCIM/Camera/IMG_0001.jpg", 1507000000L),
+                new ImageEntry(5L, "/storage/emulated/0/Pictures/\u00c9t\u00e9/photo.jpg", 0L),
+                new ImageEntry(6L, "/a.jpg", 1L));
+
+        IndexSnapshot.write(file, images, new PlaceholderColors());
+
+        List<ImageEntry> read = readAll(file);
+        assertEquals(images.size(), read.size());
+        for (int i = 0; i < images.size(); i++) {
+            assertEquals(images.get(i).id, read.get(i).id);
+            assertEquals(images.get(i).path, read.get(i).path);
+            assertEquals(images.get(i).dateAdded, read.get(i).dateAdded);
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void write_sharedPathPrefixes_keepTheFileSmall() throws Exception {
+        File file = new File(folder.getRoot(), "index.snapshot");
+        List<ImageEntry> images = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            images.add(new ImageEntry(100000 + i,
+                    "/storage/emulated/0/DCIM/Camera/IMG_2017" + (1000 + i) + ".jpg", 1500000000L + i));
+        }
+
+        IndexSnapshot.write(file, images, new PlaceholderColors());
+
+        assertTrue("Snapshot is " + file.length() + " bytes", file.length() < 24 * images.size());
+        assertEquals(images.size(), readAll(file).size());
+    }
+
+    @Test
+    public void write_thenRead_keepsPlaceholderColors() throws Exception {
+        File file = new File(folder.getRoot(), "index.snapshot");
+        PlaceholderColors colors = new PlaceholderColors();
+        colors.put(2L, 0xff336699);
+        IndexSnapshot.write(file, Arrays.asList(
+                new ImageEntry(2L, "/sdcard/DCIM/b.jpg", 2L),
+                new ImageEntry(1L, "/sdcard/DCIM/a.jpg", 1L)), colors);
+
+        IndexSnapshot.Reader reader = new IndexSnapshot.Reader(file);
+        try {
+            reader.next();
+            assertEquals(0xff336699, reader.getColor());
+            reader.next();
+            assertEquals(PlaceholderColors.NO_COLOR, reader.getColor());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_notASnapshot_throws() throws Exception {
+        File file = folder.newFile("index.snapshot");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        out.close();
+
+        new IndexSnapshot.Reader(file).close();
+    }
+
+    @Test
+    public void read_truncatedSnapshot_returnsTheCompleteEntriesThenThrows() throws Exception {
+        File file = new File(folder.getRoot(), "index.snapshot");
+        IndexSnapshot.write(file, Arrays.asList(
+                new ImageEntry(2L, "/sdcard/DCIM/b.jpg", 2L),
+                new ImageEntry(1L, "/sdcard/DCIM/a.jpg", 1L)), new PlaceholderColors());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        IndexSnapshot.Reader reader = new IndexSnapshot.Reader(file);
+        try {
+            assertEquals(2L, reader.next().id);
+            reader.next();
+            fail("Expected the truncated entry to throw");
+        } catch (IOException expected) {
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void reconcile_findsInsertedRemovedAndMovedImages() {
+        List<ImageEntry> known = Arrays.asList(
+                new ImageEntry(4L, "/sdcard/DCIM/d.jpg", 40L),
+                new ImageEntry(3L, "/sdcard/DCIM/c.jpg", 30L),
+                new ImageEntry(2L, "/sdcard/DCIM/b.jpg", 20L),
+                new ImageEntry(1L, "/sdcard/DCIM/a.jpg", 10L));
+        List<ImageEntry> fresh = Arrays.asList(
+                new ImageEntry(5L, "/sdcard/DCIM/e.jpg", 50L),
+                new ImageEntry(4L, "/sdcard/DCIM/d.jpg", 40L),
+                new ImageEntry(2L, "/sdcard/Moved/b.jpg", 20L),
+                new ImageEntry(1L, "/sdcard/DCIM/a.jpg", 10L));
+        List<ImageEntry> inserted = new ArrayList<>();
+
+        long[] removed = IndexSnapshot.reconcile(known, fresh, inserted);
+
+        assertArrayEquals(new long[] {3L, 2L}, removed);
+        assertEquals(2, inserted.size());
+        assertEquals(5L, inserted.get(0).id);
+        assertEquals("/sdcard/Moved/b.jpg", inserted.get(1).path);
+    }
+
+    @Test
+    public void reconcile_unchanged_findsNothing() {
+        List<ImageEntry> images = Arrays.asList(
+                new ImageEntry(2L, "/sdcard/DCIM/b.jpg", 20L),
+                new ImageEntry(1L, "/sdcard/DCIM/a.jpg", 10L));
+        List<ImageEntry> inserted = new ArrayList<>();
+
+        assertEquals(0, IndexSnapshot.reconcile(images, images, inserted).length);
+        assertTrue(inserted.isEmpty());
+    }
+
+    private static List<ImageEntry> readAll(File file) throws IOException {
+        List<ImageEntry> images = new ArrayList<>();
+        IndexSnapshot.Reader reader = new IndexSnapshot.Reader(file);
+        try {
+            ImageEntry entry;
+            while ((entry = reader.next()) != null) {
+                images.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+        return images;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void empty_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void bucketOf_isPowerOfTwoMicros() {
+        assertEquals(0, LatencyHistogram.bucketOf(999));
+        assertEquals(1, LatencyHistogram.bucketOf(1000));
+        assertEquals(2, LatencyHistogram.bucketOf(2000));
+        assertEquals(2, LatencyHistogram.bucketOf(3999));
+        assertEquals(3, LatencyHistogram.bucketOf(4000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_areWithinAFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MS);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500000L, histogram.getMeanNanos());
+        assertEquals(100 * MS, histogram.getMaxNanos());
+        long p50 = histogram.getPercentileNanos(50);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue("p50 " + p50, p50 >= 50 * MS && p50 <= 100 * MS);
+        assertTrue("p99 " + p99, p99 >= 99 * MS && p99 <= 198 * MS);
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5 * MS);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getBucketCount(LatencyHistogram.bucketOf(5 * MS)));
+    }
+
+    @Test
+    public void record_fromManyThreads_countsEveryDuration() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i * 1000L);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals((perThread - 1) * 1000L, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void formatMillis_roundsToTenths() {
+        assertEquals("0.0ms", LatencyHistogram.formatMillis(0));
+        assertEquals("1.5ms", LatencyHistogram.formatMillis(1450000));
+        assertEquals("12.0ms", LatencyHistogram.formatMillis(12 * MS));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LongLruCache}.
+ */
+public class LongLruCacheTest {
+
+    @Test
+    public void put_thenGet_returnsValue() {
+        LongLruCache<String> cache = new LongLruCache<>(10);
+
+        assertNull(cache.put(42L, "a"));
+        assertEquals("a", cache.put(42L, "b"));
+
+        assertEquals("b", cache.get(42L));
+        assertNull(cache.get(43L));
+        assertEquals(1, cache.entryCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void put_overBudget_evictsLeastRecentlyUsed() {
+        final List<Long> evicted = new ArrayList<>();
+        LongLruCache<String> cache = new LongLruCache<String>(3) {
+            @Override
+            protected void entryRemoved(boolean wasEvicted, long key, String oldValue, String newValue) {
+                if (wasEvicted) {
+                    evicted.add(key);
+                }
+            }
+        };
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.put(3L, "c");
+        cache.get(1L);
+
+        cache.put(4L, "d");
+
+        assertNull(cache.get(2L));
+        assertArrayEquals(new long[] {3L, 1L, 4L}, cache.keysInAccessOrder());
+        assertEquals(1, evicted.size());
+        assertEquals(Long.valueOf(2L), evicted.get(0));
+    }
+
+    @Test
+    public void put_sizedEntries_trimsBySize() {
+        LongLruCache<byte[]> cache = new LongLruCache<byte[]>(100) {
+            @Override
+            protected int sizeOf(long key, byte[] value) {
+                return value.length;
+            }
+        };
+        cache.put(1L, new byte[40]);
+        cache.put(2L, new byte[40]);
+        cache.put(3L, new byte[40]);
+
+        assertEquals(80, cache.size());
+        assertFalse(cache.containsKey(1L));
+
+        cache.trimToSize(40);
+        assertArrayEquals(new long[] {3L}, cache.keysInAccessOrder());
+    }
+
+    @Test
+    public void randomOperations_matchLinkedHashMap() {
+        final int maxEntries = 300;
+        LongLruCache<Long> cache = new LongLruCache<>(maxEntries);
+        LinkedHashMap<Long, Long> model = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200000; i++) {
+            //  Keys shaped like packed (_ID, size) keys, clustered to force long probe runs
+            final long key = ((long) random.nextInt(1000) << 24) | (96 << 12) | 96;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(model.put(key, (long) i), cache.put(key, (long) i));
+                    if (model.size() > maxEntries) {
+                        Iterator<Map.Entry<Long, Long>> eldest = model.entrySet().iterator();
+                        eldest.next();
+                        eldest.remove();
+                    }
+                    break;
+                case 1:
+                    assertEquals(model.get(key), cache.get(key));
+                    break;
+                default:
+                    assertEquals(model.remove(key), cache.remove(key));
+                    break;
+            }
+        }
+
+        long[] expected = new long[model.size()];
+        int i = 0;
+        for (Long key : model.keySet()) {
+            expected[i++] = key;
+        }
+        assertArrayEquals(expected, cache.keysInAccessOrder());
+        assertEquals(model.size(), cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_reservedKey_isRejected() {
+        new LongLruCache<String>(1).put(Long.MIN_VALUE, "a");
+    }
+}
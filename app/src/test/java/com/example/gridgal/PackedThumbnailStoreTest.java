@@ -0,0 +1,109 @@
+package com.example.gridgal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PackedThumbnailStore}.
+ */
+public class PackedThumbnailStoreTest {
+
+    private static final int PIXEL_BYTES = 16 * 16 * 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_thenRead_returnsSamePixels() throws Exception {
+        PackedThumbnailStore store = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES, 1 << 20);
+        store.write("a", fill((byte) 7));
+
+        byte[] pixels = new byte[PIXEL_BYTES];
+        assertTrue(store.read("a", copyInto(pixels)));
+        assertEquals(7, pixels[0]);
+        assertEquals(7, pixels[PIXEL_BYTES - 1]);
+        assertFalse(store.read("b", copyInto(pixels)));
+    }
+
+    @Test
+    public void write_whenFull_reusesLeastRecentlyUsedSlot() throws Exception {
+        //  Room for exactly two thumbnails
+        PackedThumbnailStore store = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES,
+                2 * (PIXEL_BYTES + 8));
+        byte[] pixels = new byte[PIXEL_BYTES];
+        store.write("a", fill((byte) 1));
+        store.write("b", fill((byte) 2));
+        store.read("a", copyInto(pixels));
+        store.write("c", fill((byte) 3));
+
+        assertTrue(store.read("a", copyInto(pixels)));
+        assertEquals(1, pixels[0]);
+        assertFalse(store.read("b", copyInto(pixels)));
+        assertTrue(store.read("c", copyInto(pixels)));
+        assertEquals(3, pixels[0]);
+    }
+
+    @Test
+    public void open_replaysIndexIncludingReusedSlots() throws Exception {
+        PackedThumbnailStore store = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES,
+                2 * (PIXEL_BYTES + 8));
+        store.write("a", fill((byte) 1));
+        store.write("b", fill((byte) 2));
+        store.write("c", fill((byte) 3));
+        store.close();
+
+        PackedThumbnailStore reopened = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES,
+                2 * (PIXEL_BYTES + 8));
+        byte[] pixels = new byte[PIXEL_BYTES];
+
+        assertEquals(2, reopened.size());
+        assertFalse(reopened.read("a", copyInto(pixels)));
+        assertTrue(reopened.read("c", copyInto(pixels)));
+        assertEquals(3, pixels[0]);
+    }
+
+    @Test
+    public void write_packFilesNeverGrowPastTheBudget() throws Exception {
+        PackedThumbnailStore store = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES,
+                300 * (PIXEL_BYTES + 8));
+        for (int i = 0; i < 300; i++) {
+            store.write("k" + i, fill((byte) i));
+        }
+        store.close();
+        assertEquals(44L * (PIXEL_BYTES + 8), new File(folder.getRoot(), "pack-1").length());
+
+        //  Reopened with a smaller budget, the disk beyond it is given back
+        PackedThumbnailStore shrunk = PackedThumbnailStore.open(folder.getRoot(), PIXEL_BYTES,
+                2 * (PIXEL_BYTES + 8));
+        shrunk.write("a", fill((byte) 1));
+        shrunk.close();
+        assertEquals(2L * (PIXEL_BYTES + 8), new File(folder.getRoot(), "pack-0").length());
+        assertFalse(new File(folder.getRoot(), "pack-1").exists());
+    }
+
+    private static PackedThumbnailStore.PixelWriter fill(final byte value) {
+        return new PackedThumbnailStore.PixelWriter() {
+            @Override
+            public void write(ByteBuffer pixels) {
+                while (pixels.hasRemaining()) {
+                    pixels.put(value);
+                }
+            }
+        };
+    }
+
+    private static PackedThumbnailStore.PixelReader copyInto(final byte[] target) {
+        return new PackedThumbnailStore.PixelReader() {
+            @Override
+            public void read(ByteBuffer pixels) {
+                pixels.get(target);
+            }
+        };
+    }
+}
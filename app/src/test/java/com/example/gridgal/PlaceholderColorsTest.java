@@ -0,0 +1,60 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlaceholderColors}.
+ */
+public class PlaceholderColorsTest {
+
+    @Test
+    public void put_thenGet_returnsTheColor() {
+        PlaceholderColors colors = new PlaceholderColors();
+
+        colors.put(42L, 0xff102030);
+
+        assertEquals(0xff102030, colors.get(42L));
+        assertEquals(PlaceholderColors.NO_COLOR, colors.get(43L));
+    }
+
+    @Test
+    public void put_manyIds_growsAndKeepsEveryColor() {
+        PlaceholderColors colors = new PlaceholderColors();
+        for (int id = 0; id < 10000; id++) {
+            colors.put(id, 0xff000000 | id);
+        }
+
+        assertEquals(10000, colors.size());
+        for (int id = 0; id < 10000; id++) {
+            assertEquals(0xff000000 | id, colors.get(id));
+        }
+    }
+
+    @Test
+    public void isChanged_onlyAfterANewOrDifferentColor() {
+        PlaceholderColors colors = new PlaceholderColors();
+        assertFalse(colors.isChanged());
+
+        colors.put(1L, 0xff112233);
+        assertTrue(colors.isChanged());
+
+        colors.clearChanged();
+        colors.put(1L, 0xff112233);
+        colors.put(2L, PlaceholderColors.NO_COLOR);
+        assertFalse(colors.isChanged());
+
+        colors.put(1L, 0xff445566);
+        assertTrue(colors.isChanged());
+    }
+
+    @Test
+    public void averageColor_averagesEachChannelAndIsOpaque() {
+        int[] pixels = {0xffff0000, 0xff0000ff, 0x00000000, 0xff00ff00};
+
+        assertEquals(0xff3f3f3f, PlaceholderColors.averageColor(pixels, 4));
+        assertEquals(0xff7f007f, PlaceholderColors.averageColor(pixels, 2));
+        assertEquals(PlaceholderColors.NO_COLOR, PlaceholderColors.averageColor(pixels, 0));
+    }
+}
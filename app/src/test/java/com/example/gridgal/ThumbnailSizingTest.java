@@ -0,0 +1,58 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailSizingTest {
+
+    @Test
+    public void getSizeBucket_roundsUp() {
+        assertEquals(64, ThumbnailSizing.getSizeBucket(1));
+        assertEquals(96, ThumbnailSizing.getSizeBucket(96));
+        assertEquals(256, ThumbnailSizing.getSizeBucket(193));
+        assertEquals(512, ThumbnailSizing.getSizeBucket(4000));
+    }
+
+    @Test
+    public void calculateInSampleSize_keepsBothSidesAboveTheRequiredSize() {
+        assertEquals(1, ThumbnailSizing.calculateInSampleSize(200, 200, 256, 256));
+        assertEquals(1, ThumbnailSizing.calculateInSampleSize(511, 511, 256, 256));
+        assertEquals(2, ThumbnailSizing.calculateInSampleSize(1025, 1025, 256, 256));
+        assertEquals(8, ThumbnailSizing.calculateInSampleSize(4032, 3024, 256, 256));
+        //  The shorter side limits the sample size
+        assertEquals(4, ThumbnailSizing.calculateInSampleSize(4032, 1100, 256, 256));
+    }
+
+    @Test
+    public void getCenterCrop_landscapeToSquare_cropsTheSides() {
+        assertArrayEquals(new int[] {504, 0, 3528, 3024},
+                ThumbnailSizing.getCenterCrop(4032, 3024, 256, 256, 1));
+    }
+
+    @Test
+    public void getCenterCrop_panoramaOnItsSide_keepsTheCenter() {
+        //  A 100x200 portrait cell for an image stored rotated, so the sizes are swapped
+        int[] crop = ThumbnailSizing.getCenterCrop(8000, 2000, 200, 100, 1);
+
+        assertArrayEquals(new int[] {2000, 0, 6000, 2000}, crop);
+    }
+
+    @Test
+    public void getCenterCrop_matchingAspect_keepsTheWholeImage() {
+        assertArrayEquals(new int[] {0, 0, 1600, 1200},
+                ThumbnailSizing.getCenterCrop(1600, 1200, 320, 240, 1));
+    }
+
+    @Test
+    public void getCenterCrop_isWholeSamples() {
+        int[] crop = ThumbnailSizing.getCenterCrop(4031, 3023, 256, 256, 8);
+
+        assertEquals(0, (crop[2] - crop[0]) % 8);
+        assertEquals(0, (crop[3] - crop[1]) % 8);
+        assertEquals(crop[2] - crop[0], crop[3] - crop[1]);
+        assertTrue(crop[0] >= 0 && crop[1] >= 0 && crop[2] <= 4031 && crop[3] <= 3023);
+    }
+}
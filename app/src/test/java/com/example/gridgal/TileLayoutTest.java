@@ -0,0 +1,59 @@
+package com.example.gridgal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TileLayoutTest {
+
+    @Test
+    public void getSampleSizeForScale_picksTheNearestLevel() {
+        assertEquals(1, TileLayout.getSampleSizeForScale(2f));
+        assertEquals(1, TileLayout.getSampleSizeForScale(1f));
+        assertEquals(1, TileLayout.getSampleSizeForScale(0.75f));
+        assertEquals(2, TileLayout.getSampleSizeForScale(0.7f));
+        assertEquals(2, TileLayout.getSampleSizeForScale(0.5f));
+        //  A 12000px wide image fitted to a 1080px screen
+        assertEquals(8, TileLayout.getSampleSizeForScale(0.09f));
+    }
+
+    @Test
+    public void getBaseSampleSize_fitsTheLongestSide() {
+        assertEquals(1, TileLayout.getBaseSampleSize(1920, 1080, 1920));
+        assertEquals(2, TileLayout.getBaseSampleSize(1921, 1080, 1920));
+        assertEquals(8, TileLayout.getBaseSampleSize(12000, 8000, 1920));
+        assertEquals(8, TileLayout.getBaseSampleSize(8000, 12000, 1920));
+    }
+
+    @Test
+    public void getTileCount_coversTheWholeSide() {
+        assertEquals(1, TileLayout.getTileCount(256, 1));
+        assertEquals(2, TileLayout.getTileCount(257, 1));
+        assertEquals(6, TileLayout.getTileCount(3024, 2));
+        assertEquals(TileLayout.getTileCount(4032, 4) - 1, TileLayout.getTileIndex(4031, 4));
+    }
+
+    @Test
+    public void getTileIndex_floorsCoordinatesLeftOfTheImage() {
+        assertEquals(-1, TileLayout.getTileIndex(-0.5f, 1));
+        assertEquals(0, TileLayout.getTileIndex(0f, 1));
+        assertEquals(1, TileLayout.getTileIndex(512f, 2));
+    }
+
+    @Test
+    public void getTileBounds_clipsTheLastTileToTheImage() {
+        assertArrayEquals(new int[] {512, 0, 1024, 512},
+                TileLayout.getTileBounds(2, 1, 0, 4032, 3024));
+        assertArrayEquals(new int[] {3584, 2560, 4032, 3024},
+                TileLayout.getTileBounds(2, 7, 5, 4032, 3024));
+    }
+
+    @Test
+    public void getTileKey_differsAcrossLevelsAndPositions() {
+        assertNotEquals(TileLayout.getTileKey(1, 0, 1), TileLayout.getTileKey(1, 1, 0));
+        assertNotEquals(TileLayout.getTileKey(1, 0, 0), TileLayout.getTileKey(2, 0, 0));
+        assertNotEquals(TileLayout.getTileKey(1, (1 << 24) - 1, 0), TileLayout.getTileKey(2, 0, 0));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.DiskThumbnailCache;
+import com.example.gridgal.ImageEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Building the keys a thumbnail is looked up by. The memory key is built on every
+ *  bind, the disk key on every memory cache miss.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyBenchmark {
+
+    private static final String PATH = "/storage/emulated/0/DCIM/Camera/IMG_20170926_181503.jpg";
+
+    private final ImageEntry entry = new ImageEntry(48213, PATH, 1506449703L);
+    private long id = 48213;
+
+    @Benchmark
+    public long memoryKey() {
+        return entry.getCacheKey(256, 256);
+    }
+
+    @Benchmark
+    public long memoryKeyOfNextImage() {
+        return ImageEntry.cacheKeyFor(id++, 256, 256);
+    }
+
+    /**
+     *  The String key the memory cache used before it was keyed by _ID, for comparison
+     */
+    @Benchmark
+    public String stringMemoryKey() {
+        return entry.path + ":" + 256 + ":" + 256;
+    }
+
+    @Benchmark
+    public String diskKey() {
+        return DiskThumbnailCache.keyFor(PATH, 1506449703000L, 3145728L, 256, 256);
+    }
+}
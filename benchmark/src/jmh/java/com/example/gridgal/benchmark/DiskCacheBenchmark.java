@@ -0,0 +1,70 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.DiskThumbnailCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Index lookups of the disk cache, which happen on every memory cache miss. A hit
+ *  also appends a READ line to the journal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskCacheBenchmark {
+
+    private static final int ENTRIES = 2000;
+    private static final byte[] THUMBNAIL = new byte[16 * 1024];
+
+    private File directory;
+    private DiskThumbnailCache cache;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("disk-cache").toFile();
+        cache = DiskThumbnailCache.open(directory, Long.MAX_VALUE);
+        keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = DiskThumbnailCache.keyFor("/sdcard/DCIM/IMG_" + i + ".jpg", i, i, 256, 256);
+            cache.put(keys[i], new DiskThumbnailCache.EntryWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    out.write(THUMBNAIL);
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+        SyntheticCorpus.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        next = (next + 7) % ENTRIES;
+        return cache.contains(keys[next]);
+    }
+
+    @Benchmark
+    public File getHit() {
+        next = (next + 7) % ENTRIES;
+        return cache.get(keys[next]);
+    }
+}
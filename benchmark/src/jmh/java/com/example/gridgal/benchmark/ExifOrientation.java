@@ -0,0 +1,166 @@
+package com.example.gridgal.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *  Writes and reads the EXIF orientation tag of a JPEG, the JVM stand-in for
+ *  {@code android.media.ExifInterface} in the benchmarked pipeline.
+ *
+ *  Only the APP1 segments before the image data are scanned, like ExifInterface does,
+ *  so reading costs about the same on both platforms.
+ */
+final class ExifOrientation {
+
+    static final int NORMAL = 1;
+    static final int ROTATE_180 = 3;
+    static final int ROTATE_90 = 6;
+    static final int ROTATE_270 = 8;
+
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     *  @return                 the clockwise rotation the orientation tag asks for, in
+     *                          degrees, mirroring Utils.getExifRotation()
+     */
+    static int toRotation(int orientation) {
+        switch (orientation) {
+            case ROTATE_90:
+                return 90;
+            case ROTATE_180:
+                return 180;
+            case ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     *  Inserts an APP1 segment holding only an orientation tag right after the SOI
+     *  marker of an encoded JPEG
+     */
+    static byte[] withOrientation(byte[] jpeg, int orientation) {
+        //  Big-endian TIFF header, IFD0 with one entry and no next IFD
+        final byte[] tiff = {
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                (byte) (TAG_ORIENTATION >> 8), (byte) TAG_ORIENTATION, 0, TYPE_SHORT,
+                0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        final byte[] exifHeader = {'E', 'x', 'i', 'f', 0, 0};
+        final int segmentLength = 2 + exifHeader.length + tiff.length;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + segmentLength + 2);
+        out.write(jpeg, 0, 2);
+        out.write(0xff);
+        out.write(MARKER_APP1);
+        out.write(segmentLength >> 8);
+        out.write(segmentLength);
+        out.write(exifHeader, 0, exifHeader.length);
+        out.write(tiff, 0, tiff.length);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    /**
+     *  @return                 the orientation tag of a JPEG file, or {@link #NORMAL} if
+     *                          it has none
+     */
+    static int read(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readUnsignedByte() != 0xff || in.readUnsignedByte() != MARKER_SOI) {
+                return NORMAL;
+            }
+            while (true) {
+                if (in.readUnsignedByte() != 0xff) {
+                    return NORMAL;
+                }
+                final int marker = in.readUnsignedByte();
+                if (marker == MARKER_SOS) {
+                    return NORMAL;
+                }
+                final int length = in.readUnsignedShort() - 2;
+                if (marker != MARKER_APP1) {
+                    skipFully(in, length);
+                    continue;
+                }
+                final byte[] segment = new byte[length];
+                in.readFully(segment);
+                final int orientation = findOrientation(segment);
+                if (orientation != 0) {
+                    return orientation;
+                }
+            }
+        } catch (EOFException e) {
+            return NORMAL;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     *  @return                 the orientation in an APP1 segment, or 0 if it has none
+     */
+    private static int findOrientation(byte[] segment) {
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x'
+                || segment[2] != 'i' || segment[3] != 'f') {
+            return 0;
+        }
+        final int tiff = 6;
+        final boolean isBigEndian = segment[tiff] == 'M';
+        final int ifd = tiff + readInt(segment, tiff + 4, isBigEndian);
+        if (ifd + 2 > segment.length) {
+            return 0;
+        }
+        final int entries = readShort(segment, ifd, isBigEndian);
+        for (int i = 0; i < entries; i++) {
+            final int entry = ifd + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                return 0;
+            }
+            if (readShort(segment, entry, isBigEndian) == TAG_ORIENTATION) {
+                return readShort(segment, entry + 8, isBigEndian);
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(byte[] b, int offset, boolean isBigEndian) {
+        final int b0 = b[offset] & 0xff;
+        final int b1 = b[offset + 1] & 0xff;
+        return isBigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private static int readInt(byte[] b, int offset, boolean isBigEndian) {
+        return isBigEndian
+                ? (readShort(b, offset, true) << 16) | readShort(b, offset + 2, true)
+                : (readShort(b, offset + 2, false) << 16) | readShort(b, offset, false);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            final long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+}
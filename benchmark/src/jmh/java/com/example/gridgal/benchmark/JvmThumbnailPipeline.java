@@ -0,0 +1,130 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.PipelineMetrics;
+import com.example.gridgal.ThumbnailSizing;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ *  The stages of Utils.decodeIncomingImage() and the disk write, rebuilt on ImageIO and
+ *  Java2D so that the pipeline can be measured on a plain JVM.
+ *
+ *  Every stage is the same work as on the device: the size comes from the JPEG header,
+ *  the orientation from the EXIF APP1 segment, the crop area and sample size from
+ *  {@link ThumbnailSizing}. Only the crop area is decoded, like with
+ *  BitmapRegionDecoder, and a single transform rotates and scales it into the
+ *  thumbnail. Stages are recorded in {@link PipelineMetrics} under the same names.
+ *  Absolute numbers differ from a phone; ImageIO subsamples after a full decode where
+ *  BitmapFactory scales inside the DCT, so the decode stage weighs more here. Use the
+ *  results to compare builds, not devices.
+ */
+final class JvmThumbnailPipeline {
+
+    //  Same quality as the JPEG disk cache in Utils.saveThumbnailToDisk()
+    private static final float DISK_QUALITY = 0.97f;
+
+    private JvmThumbnailPipeline() {
+    }
+
+    /**
+     *  @return                 a thumbnail of rWidth x rHeight covering the thumbnail area
+     */
+    static BufferedImage decodeIncomingImage(File imageFile, int rWidth, int rHeight)
+            throws IOException {
+        final ImageInputStream in = ImageIO.createImageInputStream(imageFile);
+        final ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        try {
+            reader.setInput(in, true, true);
+
+            long stageStart = PipelineMetrics.start();
+            final int rawWidth = reader.getWidth(0);
+            final int rawHeight = reader.getHeight(0);
+            PipelineMetrics.record(PipelineMetrics.STAGE_BOUNDS, stageStart);
+
+            stageStart = PipelineMetrics.start();
+            final int rotation = ExifOrientation.toRotation(ExifOrientation.read(imageFile));
+            PipelineMetrics.record(PipelineMetrics.STAGE_ORIENTATION, stageStart);
+            final boolean isQuarterTurn = rotation == 90 || rotation == 270;
+
+            final int storedWidth = isQuarterTurn ? rHeight : rWidth;
+            final int storedHeight = isQuarterTurn ? rWidth : rHeight;
+            int[] crop = ThumbnailSizing.getCenterCrop(rawWidth, rawHeight, storedWidth,
+                    storedHeight, 1);
+            final int sampleSize = ThumbnailSizing.calculateInSampleSize(crop[2] - crop[0],
+                    crop[3] - crop[1], storedWidth, storedHeight);
+            crop = ThumbnailSizing.getCenterCrop(rawWidth, rawHeight, storedWidth, storedHeight,
+                    sampleSize);
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(crop[0], crop[1], crop[2] - crop[0],
+                    crop[3] - crop[1]));
+            param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            stageStart = PipelineMetrics.start();
+            final BufferedImage sampled = reader.read(0, param);
+            PipelineMetrics.record(PipelineMetrics.STAGE_DECODE, stageStart);
+
+            stageStart = PipelineMetrics.start();
+            final BufferedImage thumbnail = transformToThumbnail(sampled, rotation, rWidth, rHeight);
+            PipelineMetrics.record(PipelineMetrics.STAGE_CROP, stageStart);
+            return thumbnail;
+        } finally {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    /**
+     *  Compresses a thumbnail the way the JPEG disk cache stores it
+     *
+     *  @return                 the bytes that would be written to disk
+     */
+    static byte[] compressForDisk(BufferedImage thumbnail) throws IOException {
+        final long startTime = PipelineMetrics.start();
+        final byte[] jpeg = SyntheticCorpus.encodeJpeg(thumbnail, DISK_QUALITY);
+        PipelineMetrics.record(PipelineMetrics.STAGE_DISK_WRITE, startTime);
+        return jpeg;
+    }
+
+    /**
+     *  Mirrors Utils.transformToThumbnail(): the same matrix, applied in one draw
+     */
+    private static BufferedImage transformToThumbnail(BufferedImage sampled, int rotation,
+                                                      int rWidth, int rHeight) {
+        final int srcWidth = sampled.getWidth();
+        final int srcHeight = sampled.getHeight();
+        if (rotation == 0 && srcWidth == rWidth && srcHeight == rHeight) {
+            return sampled;
+        }
+
+        final boolean isQuarterTurn = rotation == 90 || rotation == 270;
+        final int rotatedWidth = isQuarterTurn ? srcHeight : srcWidth;
+        final int rotatedHeight = isQuarterTurn ? srcWidth : srcHeight;
+        final double scale = Math.max((double) rWidth / rotatedWidth,
+                (double) rHeight / rotatedHeight);
+
+        //  AffineTransform concatenates in the opposite order to Matrix.postXxx()
+        final AffineTransform transform = new AffineTransform();
+        transform.translate(rWidth / 2.0, rHeight / 2.0);
+        transform.scale(scale, scale);
+        transform.rotate(Math.toRadians(rotation));
+        transform.translate(-srcWidth / 2.0, -srcHeight / 2.0);
+
+        final BufferedImage thumbnail = new BufferedImage(rWidth, rHeight, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(sampled, transform, null);
+        g.dispose();
+        return thumbnail;
+    }
+}
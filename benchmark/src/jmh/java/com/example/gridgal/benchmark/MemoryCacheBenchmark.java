@@ -0,0 +1,84 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.ImageEntry;
+import com.example.gridgal.LongLruCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Memory cache operations on the bind path, against an access-ordered LinkedHashMap
+ *  with boxed keys, which is what android.support.v4.util.LruCache is built on
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryCacheBenchmark {
+
+    //  About as many 256px thumbnails as fit the memory cache of a mid-range phone
+    private static final int ENTRIES = 512;
+    private static final Object THUMBNAIL = new Object();
+
+    private LongLruCache<Object> cache;
+    private LinkedHashMap<Long, Object> linkedHashMap;
+    private int next;
+    private long nextNewId = ENTRIES;
+
+    @Setup
+    public void setUp() {
+        cache = new LongLruCache<>(ENTRIES);
+        linkedHashMap = new LinkedHashMap<Long, Object>(ENTRIES * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+                return size() > ENTRIES;
+            }
+        };
+        for (int id = 0; id < ENTRIES; id++) {
+            cache.put(key(id), THUMBNAIL);
+            linkedHashMap.put(key(id), THUMBNAIL);
+        }
+    }
+
+    @Benchmark
+    public Object getHit() {
+        return cache.get(key(nextCachedId()));
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return cache.get(key(ENTRIES + nextCachedId()));
+    }
+
+    @Benchmark
+    public Object putEvictingEldest() {
+        return cache.put(key(nextNewId++), THUMBNAIL);
+    }
+
+    @Benchmark
+    public Object linkedHashMapGetHit() {
+        return linkedHashMap.get(key(nextCachedId()));
+    }
+
+    @Benchmark
+    public Object linkedHashMapPutEvictingEldest() {
+        return linkedHashMap.put(key(nextNewId++), THUMBNAIL);
+    }
+
+    private int nextCachedId() {
+        next = (next + 7) % ENTRIES;
+        return next;
+    }
+
+    private static long key(long id) {
+        return ImageEntry.cacheKeyFor(id, 256, 256);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.PipelineMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  End-to-end throughput of generating thumbnails from camera-sized JPEGs, in
+ *  thumbnails per second. Run with {@code -t 4} or more threads to see how the
+ *  pipeline scales across decode threads.
+ *
+ *  The per-stage breakdown from {@link PipelineMetrics} is printed after each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmark {
+
+    @Param({"8"})
+    public int corpusSize;
+
+    @Param({"4032x3024"})
+    public String imageSize;
+
+    @Param({"256"})
+    public int thumbnailSize;
+
+    private File directory;
+    private File[] images;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final int separator = imageSize.indexOf('x');
+        directory = Files.createTempDirectory("corpus").toFile();
+        images = SyntheticCorpus.write(directory, corpusSize,
+                Integer.parseInt(imageSize.substring(0, separator)),
+                Integer.parseInt(imageSize.substring(separator + 1)));
+        PipelineMetrics.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        final PrintWriter writer = new PrintWriter(System.out);
+        PipelineMetrics.dump("", writer);
+        writer.flush();
+        SyntheticCorpus.deleteRecursively(directory);
+    }
+
+    /**
+     *  Bounds, orientation, sampled decode and crop, as on a disk cache miss
+     */
+    @Benchmark
+    public BufferedImage decodeThumbnail() throws IOException {
+        return JvmThumbnailPipeline.decodeIncomingImage(nextImage(), thumbnailSize, thumbnailSize);
+    }
+
+    /**
+     *  A disk cache miss including compressing the thumbnail for the disk cache
+     */
+    @Benchmark
+    public byte[] decodeAndCompressThumbnail() throws IOException {
+        return JvmThumbnailPipeline.compressForDisk(JvmThumbnailPipeline.decodeIncomingImage(
+                nextImage(), thumbnailSize, thumbnailSize));
+    }
+
+    private File nextImage() {
+        return images[(next.getAndIncrement() & Integer.MAX_VALUE) % images.length];
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.gridgal.benchmark;
+
+import com.example.gridgal.ThumbnailSizing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  The sizing arithmetic that runs for every thumbnail decoded and every adapter created
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizingBenchmark {
+
+    //  Camera shots in both orientations, a screenshot, a panorama and a small image
+    private static final int[][] IMAGE_SIZES = {
+            {4032, 3024}, {3024, 4032}, {1080, 1920}, {8000, 2000}, {640, 480}
+    };
+
+    private int next;
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        next = (next + 1) % IMAGE_SIZES.length;
+        final int[] size = IMAGE_SIZES[next];
+        return ThumbnailSizing.calculateInSampleSize(size[0], size[1], 256, 256);
+    }
+
+    @Benchmark
+    public int getSizeBucket() {
+        next = (next + 1) & 511;
+        return ThumbnailSizing.getSizeBucket(next);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.gridgal.benchmark;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ *  Generates camera-sized JPEGs to benchmark the pipeline on, so that runs are
+ *  repeatable and do not depend on anybody's photo library.
+ *
+ *  Images are smooth gradients covered with random soft shapes and fine noise, which
+ *  compresses about as well as a real photo. The files cycle through the upright,
+ *  90, 180 and 270 degree EXIF orientations, like a mix of portrait and landscape shots.
+ */
+final class SyntheticCorpus {
+
+    private static final int[] ORIENTATIONS = {
+            ExifOrientation.NORMAL, ExifOrientation.ROTATE_90,
+            ExifOrientation.ROTATE_180, ExifOrientation.ROTATE_270
+    };
+    private static final float CAMERA_QUALITY = 0.92f;
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     *  Writes the corpus into a directory, the same files for the same arguments
+     *
+     *  @param directory        an existing directory to write the images into
+     *  @param count            number of images
+     *  @param width            width of the stored pixels, before the EXIF rotation
+     *  @param height           height of the stored pixels, before the EXIF rotation
+     *  @return                 the written files
+     */
+    static File[] write(File directory, int count, int width, int height) throws IOException {
+        final File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            final byte[] jpeg = encodeJpeg(paint(width, height, new Random(i)), CAMERA_QUALITY);
+            files[i] = new File(directory, "IMG_" + i + ".jpg");
+            final FileOutputStream out = new FileOutputStream(files[i]);
+            try {
+                out.write(ExifOrientation.withOrientation(jpeg, ORIENTATIONS[i % ORIENTATIONS.length]));
+            } finally {
+                out.close();
+            }
+        }
+        return files;
+    }
+
+    /**
+     *  Deletes a file, or a directory with everything in it
+     */
+    static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     *  Encodes an image as a baseline JPEG at the given quality
+     */
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+        try {
+            writer.setOutput(out);
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage paint(int width, int height, Random random) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, randomColor(random), width, height, randomColor(random)));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 60; i++) {
+            final int size = width / 20 + random.nextInt(width / 4);
+            final Color color = randomColor(random);
+            g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), 96));
+            g.fillOval(random.nextInt(width) - size / 2, random.nextInt(height) - size / 2,
+                    size, size + random.nextInt(size));
+        }
+        g.dispose();
+
+        //  Sensor-like noise, so the entropy coder has real work to do
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                final int noise = random.nextInt(9) - 4;
+                row[x] = (clamp(((row[x] >> 16) & 0xff) + noise) << 16)
+                        | (clamp(((row[x] >> 8) & 0xff) + noise) << 8)
+                        | clamp((row[x] & 0xff) + noise);
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static Color randomColor(Random random) {
+        return new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+}